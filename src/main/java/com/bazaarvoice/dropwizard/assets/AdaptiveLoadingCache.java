@@ -0,0 +1,336 @@
+package com.bazaarvoice.dropwizard.assets;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.AbstractLoadingCache;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A loading cache that sizes itself to the working set instead of to a fixed number of entries.  Every lookup is
+ * recorded in a {@link FrequencySketch}.  Loaded values are admitted freely while the cache is below its byte ceiling;
+ * once it is full a value is only admitted if it has been requested more often than the residents it would displace
+ * (the TinyLFU admission policy).  Room is made by repeatedly evicting the least popular of a small random sample of
+ * the residents, for as long as that resident is less popular than the value, so a popular value gets in however many
+ * small residents it has to displace.  If a sampled resident is at least as popular, the value is rejected and nothing
+ * is evicted.  Values that are not admitted are still returned to the caller, they just aren't retained.  Concurrent
+ * misses for the same key are coalesced into one load whether or not the result ends up being admitted.
+ * <p/>
+ * Whenever the sketch ages its counts, residents whose estimated frequency has decayed to zero have not been requested
+ * for a whole sample period and are released, so the cache shrinks back to the working set rather than staying at its
+ * ceiling.
+ * <p/>
+ * Hits only read a concurrent map and record the request in the lock-free sketch.  Admission and eviction happen
+ * under a single lock, which is only taken by loads, invalidations and the sweep that follows each aging.
+ */
+final class AdaptiveLoadingCache<K, V> extends AbstractLoadingCache<K, V> {
+    private static final int ADMISSION_SAMPLE_SIZE = 8;
+
+    private final ConcurrentMap<K, Weighted<K, V>> cache = Maps.newConcurrentMap();
+    private final CacheLoader<K, V> loader;
+    private final Weigher<K, V> weigher;
+    private final long maximumWeight;
+    private final FrequencySketch sketch;
+    private final AtomicLong weightedSize = new AtomicLong();
+    private final Object evictionLock = new Object();
+    /** The resident entries in no particular order, so that they can be sampled at random; guarded by evictionLock. */
+    private final List<Weighted<K, V>> residents = Lists.newArrayList();
+    private final ConcurrentMap<K, FutureTask<V>> loading = Maps.newConcurrentMap();
+    /** The number of times the sketch had aged when residents were last swept for ones it no longer remembers. */
+    private final AtomicInteger sweptResets = new AtomicInteger();
+
+    private final Counter hits = new Counter();
+    private final Counter misses = new Counter();
+    private final Counter admitted = new Counter();
+    private final Counter rejected = new Counter();
+    private final Counter coalesced = new Counter();
+    private final Counter expired = new Counter();
+
+    /**
+     * @param loader          loads values on a miss
+     * @param weigher         computes the weight of a loaded value, typically its size in bytes
+     * @param maximumWeight   the ceiling on the total weight of the resident values
+     * @param expectedEntries the number of distinct keys expected to be requested, used to size the frequency sketch
+     */
+    AdaptiveLoadingCache(CacheLoader<K, V> loader, Weigher<K, V> weigher, long maximumWeight, int expectedEntries) {
+        checkArgument(maximumWeight > 0, "maximumWeight must be positive: %s", maximumWeight);
+        this.loader = loader;
+        this.weigher = weigher;
+        this.maximumWeight = maximumWeight;
+        this.sketch = new FrequencySketch(expectedEntries);
+    }
+
+    @Override
+    public V get(K key) throws ExecutionException {
+        sketch.increment(key);
+        maybeExpire();
+
+        Weighted<K, V> resident = cache.get(key);
+        if (resident != null) {
+            hits.inc();
+            return resident.value;
+        }
+        misses.inc();
+
+        // Concurrent misses for the same key share a single load
+        FutureTask<V> task = new FutureTask<V>(new Loader(key));
+        FutureTask<V> inFlight = loading.putIfAbsent(key, task);
+        if (inFlight == null) {
+            inFlight = task;
+            try {
+                task.run();
+            } finally {
+                loading.remove(key, task);
+            }
+        } else {
+            coalesced.inc();
+        }
+
+        V value = Uninterruptibles.getUninterruptibly(inFlight);
+        if (value == null) {
+            throw new CacheLoader.InvalidCacheLoadException("CacheLoader returned null for key " + key + ".");
+        }
+        return value;
+    }
+
+    @Override
+    public V getIfPresent(Object key) {
+        Weighted<K, V> resident = cache.get(key);
+        return (resident != null) ? resident.value : null;
+    }
+
+    @Override
+    public void invalidate(Object key) {
+        synchronized (evictionLock) {
+            Weighted<K, V> resident = cache.get(key);
+            if (resident != null) {
+                evict(resident);
+            }
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        synchronized (evictionLock) {
+            cache.clear();
+            residents.clear();
+            weightedSize.set(0);
+        }
+    }
+
+    @Override
+    public long size() {
+        return cache.size();
+    }
+
+    /** The total weight of the values currently held by the cache. */
+    long weightedSize() {
+        return weightedSize.get();
+    }
+
+    /**
+     * Registers the cache's hit, miss and admission counters as well as gauges for its current size under
+     * {@code prefix}.
+     */
+    void registerMetrics(MetricRegistry registry, String prefix) {
+        registry.register(MetricRegistry.name(prefix, "hits"), hits);
+        registry.register(MetricRegistry.name(prefix, "misses"), misses);
+        registry.register(MetricRegistry.name(prefix, "admitted"), admitted);
+        registry.register(MetricRegistry.name(prefix, "rejected"), rejected);
+        registry.register(MetricRegistry.name(prefix, "coalesced"), coalesced);
+        registry.register(MetricRegistry.name(prefix, "expired"), expired);
+        registry.register(MetricRegistry.name(prefix, "entries"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return (long) cache.size();
+            }
+        });
+        registry.register(MetricRegistry.name(prefix, "weightedSize"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return weightedSize.get();
+            }
+        });
+        registry.register(MetricRegistry.name(prefix, "maximumWeight"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return maximumWeight;
+            }
+        });
+    }
+
+    /** Loads a value and, if the admission policy allows it, retains it in the cache. */
+    private V loadAndAdmit(K key) throws Exception {
+        V value = loader.load(key);
+        if (value == null) {
+            return null;
+        }
+
+        int weight = weigher.weigh(key, value);
+        synchronized (evictionLock) {
+            Weighted<K, V> existing = cache.get(key);
+            if (existing != null) {
+                return existing.value;
+            }
+
+            List<Weighted<K, V>> victims = victimsFor(key, weight);
+            if (victims == null) {
+                rejected.inc();
+                return value;
+            }
+            for (Weighted<K, V> victim : victims) {
+                evict(victim);
+            }
+
+            Weighted<K, V> entry = new Weighted<K, V>(key, value, weight, residents.size());
+            residents.add(entry);
+            cache.put(key, entry);
+            weightedSize.addAndGet(weight);
+        }
+
+        admitted.inc();
+        return value;
+    }
+
+    /**
+     * Chooses the residents to evict to make room for a value of {@code weight}, or returns null if the value should
+     * not be admitted.  Once the cache is full, the least popular of a fresh sample of residents is chosen until there
+     * is room, as long as each one has been requested less often than the candidate; as soon as one hasn't, the
+     * candidate is rejected.  Must hold the eviction lock.
+     */
+    private List<Weighted<K, V>> victimsFor(K key, int weight) {
+        if (weight > maximumWeight) {
+            return null;
+        }
+
+        long excess = weightedSize.get() + weight - maximumWeight;
+        if (excess <= 0) {
+            return Collections.emptyList();
+        }
+
+        // Chosen victims are moved past the end of the candidates, so that later samples can't pick them again.  The
+        // residents are in no particular order, so this is harmless even if the value ends up being rejected.
+        int candidateFrequency = sketch.frequency(key);
+        int candidates = residents.size();
+        List<Weighted<K, V>> victims = Lists.newArrayList();
+        while (excess > 0 && candidates > 0) {
+            Weighted<K, V> victim = coldestOfSample(candidates);
+            if (sketch.frequency(victim.key) >= candidateFrequency) {
+                return null;
+            }
+
+            candidates--;
+            swap(victim.index, candidates);
+            victims.add(victim);
+            excess -= victim.weight;
+        }
+        return (excess <= 0) ? victims : null;
+    }
+
+    /**
+     * Returns the least popular of up to {@link #ADMISSION_SAMPLE_SIZE} residents drawn at random from the first
+     * {@code candidates}; must hold the eviction lock.
+     */
+    private Weighted<K, V> coldestOfSample(int candidates) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Weighted<K, V> coldest = null;
+        int coldestFrequency = Integer.MAX_VALUE;
+        for (int i = 0; i < Math.min(ADMISSION_SAMPLE_SIZE, candidates); i++) {
+            Weighted<K, V> resident = residents.get(random.nextInt(candidates));
+            int frequency = sketch.frequency(resident.key);
+            if (frequency < coldestFrequency) {
+                coldest = resident;
+                coldestFrequency = frequency;
+            }
+        }
+        return coldest;
+    }
+
+    /** Exchanges the residents at two positions; must hold the eviction lock. */
+    private void swap(int i, int j) {
+        Weighted<K, V> first = residents.get(i);
+        Weighted<K, V> second = residents.get(j);
+        residents.set(i, second);
+        second.index = i;
+        residents.set(j, first);
+        first.index = j;
+    }
+
+    /**
+     * Releases the residents the sketch no longer remembers being requested, once per aging of the sketch.  Only the
+     * request that notices the aging first does the sweep.
+     */
+    private void maybeExpire() {
+        int resets = sketch.resets();
+        int swept = sweptResets.get();
+        if (resets == swept || !sweptResets.compareAndSet(swept, resets)) {
+            return;
+        }
+
+        synchronized (evictionLock) {
+            // Walk backwards, since evicting moves the last resident, which has already been kept, into the gap
+            for (int i = residents.size() - 1; i >= 0; i--) {
+                Weighted<K, V> resident = residents.get(i);
+                if (sketch.frequency(resident.key) == 0) {
+                    evict(resident);
+                    expired.inc();
+                }
+            }
+        }
+    }
+
+    /** Removes a resident in constant time by moving the last resident into its slot; must hold the eviction lock. */
+    private void evict(Weighted<K, V> resident) {
+        Weighted<K, V> last = residents.remove(residents.size() - 1);
+        if (last != resident) {
+            residents.set(resident.index, last);
+            last.index = resident.index;
+        }
+        cache.remove(resident.key, resident);
+        weightedSize.addAndGet(-resident.weight);
+    }
+
+    private final class Loader implements Callable<V> {
+        private final K key;
+
+        private Loader(K key) {
+            this.key = key;
+        }
+
+        @Override
+        public V call() throws Exception {
+            return loadAndAdmit(key);
+        }
+    }
+
+    /** A cached value along with the weight it was admitted with and its position among the residents. */
+    private static final class Weighted<K, V> {
+        private final K key;
+        private final V value;
+        private final int weight;
+        private int index;
+
+        private Weighted(K key, V value, int weight, int index) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.index = index;
+        }
+    }
+}
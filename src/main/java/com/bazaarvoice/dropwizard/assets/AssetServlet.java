@@ -1,7 +1,9 @@
 package com.bazaarvoice.dropwizard.assets;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheBuilderSpec;
@@ -9,11 +11,11 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.cache.Weigher;
 import com.google.common.hash.Hashing;
-import com.google.common.io.Files;
-import com.google.common.io.Resources;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.net.HttpHeaders;
 import com.google.common.net.MediaType;
-import io.dropwizard.servlets.assets.ResourceURL;
 import org.eclipse.jetty.http.MimeTypes;
 
 import javax.servlet.ServletException;
@@ -21,11 +23,15 @@ import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.File;
 import java.io.IOException;
-import java.net.URL;
 import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Servlet responsible for serving assets to the caller.  This is basically completely stolen from
@@ -37,11 +43,18 @@ class AssetServlet extends HttpServlet {
     private static final long serialVersionUID = 6393345594784987908L;
     private static final MediaType DEFAULT_MEDIA_TYPE = MediaType.HTML_UTF_8;
     private static final String DEFAULT_INDEX_FILE = "index.htm";
+    private static final int EXPECTED_ASSET_COUNT = 1024;
 
+    private final transient AssetLoader loader;
     private final transient LoadingCache<String, Asset> cache;
     private final transient MimeTypes mimeTypes;
+    private final transient AssetTransforms transforms = new AssetTransforms();
 
     private Charset defaultCharset = Charsets.UTF_8;
+    private boolean serveLastModified = true;
+    private transient NotModifiedFilter notModifiedFilter;
+    private transient InvalidationBroadcaster invalidationBroadcaster;
+    private final transient List<AssetTracer> tracers = new CopyOnWriteArrayList<AssetTracer>();
 
     /**
      * Creates a new {@code AssetServlet} that serves static assets loaded from {@code resourceURL} (typically a file:
@@ -60,10 +73,31 @@ class AssetServlet extends HttpServlet {
      */
     public AssetServlet(String resourcePath, CacheBuilderSpec spec, String uriPath, String indexFile,
                         Iterable<Map.Entry<String, String>> overrides, Iterable<Map.Entry<String, String>> mimeTypes) {
-        AssetLoader loader = new AssetLoader(resourcePath, uriPath, indexFile, overrides);
-        this.cache = CacheBuilder.from(spec).weigher(new AssetSizeWeigher()).build(loader);
         this.mimeTypes = new MimeTypes();
         this.setMimeTypes(mimeTypes);
+        this.loader = new AssetLoader(resourcePath, uriPath, indexFile, overrides, this.mimeTypes, transforms);
+        this.cache = buildCache(spec, loader);
+    }
+
+    /**
+     * Creates a new {@code AssetServlet} whose cache adapts to the working set instead of following a
+     * {@link CacheBuilderSpec}.  Assets are cached while they fit within {@code maximumCacheBytes}; once the cache is
+     * full an asset is only admitted if it is requested more often than the assets it would displace.
+     *
+     * @param resourcePath      the base URL from which assets are loaded
+     * @param maximumCacheBytes the maximum number of bytes of asset content to hold in memory
+     * @param uriPath           the URI path fragment in which all requests are rooted
+     * @param indexFile         the filename to use when directories are requested, or null to serve no indexes
+     * @param overrides         the path overrides
+     * @see AdaptiveLoadingCache
+     */
+    public AssetServlet(String resourcePath, long maximumCacheBytes, String uriPath, String indexFile,
+                        Iterable<Map.Entry<String, String>> overrides, Iterable<Map.Entry<String, String>> mimeTypes) {
+        this.mimeTypes = new MimeTypes();
+        this.setMimeTypes(mimeTypes);
+        this.loader = new AssetLoader(resourcePath, uriPath, indexFile, overrides, this.mimeTypes, transforms);
+        this.cache = new AdaptiveLoadingCache<String, Asset>(loader, new AssetSizeWeigher(), maximumCacheBytes,
+                EXPECTED_ASSET_COUNT);
     }
 
     /**
@@ -79,6 +113,26 @@ class AssetServlet extends HttpServlet {
         this(resourcePath, spec, uriPath, DEFAULT_INDEX_FILE, overrides, mimes);
     }
 
+    /**
+     * Serves assets from {@code source} beneath {@code uriPath}.  Sources are consulted in the order they were added,
+     * after the overrides and before the classpath, and their assets are reloaded whenever the source reports that
+     * they changed.  The classpath can't change, so assets of a {@link ClasspathAssetSource} are cached and
+     * revalidated the same way as the servlet's own classpath assets.  Sources should be added before the servlet
+     * starts serving requests.
+     */
+    public void addSource(String uriPath, AssetSource source) {
+        loader.addSource(uriPath, source);
+    }
+
+    /**
+     * Transforms every asset of {@code mediaType} with {@code transformer} before it is cached.  Transformers for the
+     * same type run in the order they were added.  Transformers should be added before the servlet starts serving
+     * requests.
+     */
+    public void addTransformer(MediaType mediaType, AssetTransformer transformer) {
+        transforms.add(mediaType, transformer);
+    }
+
     public void setMimeTypes(Iterable<Map.Entry<String, String>> mimeTypes) {
         for (Map.Entry<String, String> mime : mimeTypes) {
             this.mimeTypes.addMimeMapping(mime.getKey(), mime.getValue());
@@ -97,44 +151,147 @@ class AssetServlet extends HttpServlet {
         return this.defaultCharset;
     }
 
+    /**
+     * Sets whether responses carry a {@code Last-Modified} header and honor {@code If-Modified-Since}.  Modification
+     * times come from wherever the asset was loaded, and may differ between nodes serving identical bytes; without
+     * them assets are only validated by their ETag, which is derived from their contents alone.
+     */
+    public void setServeLastModified(boolean serveLastModified) {
+        this.serveLastModified = serveLastModified;
+    }
+
+    public boolean isServeLastModified() {
+        return serveLastModified;
+    }
+
+    /**
+     * Sets the broadcaster that carries invalidations to and from the peers of this node.  Invalidations received from
+     * peers evict the asset from this servlet without being broadcast again.
+     */
+    public void setInvalidationBroadcaster(InvalidationBroadcaster invalidationBroadcaster) {
+        this.invalidationBroadcaster = invalidationBroadcaster;
+        invalidationBroadcaster.addListener(new InvalidationBroadcaster.Listener() {
+            @Override
+            public void invalidated(String path) {
+                evict(path);
+            }
+        });
+    }
+
+    /**
+     * Evicts the asset served at {@code path}, so that it is loaded again on its next request, and tells the peers of
+     * this node to do the same.
+     */
+    public void invalidate(String path) throws IOException {
+        evict(path);
+        if (invalidationBroadcaster != null) {
+            invalidationBroadcaster.broadcast(path);
+        }
+    }
+
+    private void evict(String path) {
+        // Mark the path first, so that a load already in flight doesn't cache or record what it read before
+        loader.invalidated(path);
+        cache.invalidate(path);
+        if (notModifiedFilter != null) {
+            notModifiedFilter.forget(path);
+        }
+    }
+
+    /**
+     * Sets the filter that answers revalidations of unchanging assets ahead of this servlet.  The servlet keeps the
+     * filter informed of the ETags of the assets it serves.
+     */
+    public void setNotModifiedFilter(NotModifiedFilter notModifiedFilter) {
+        this.notModifiedFilter = notModifiedFilter;
+    }
+
+    /**
+     * Registers metrics describing the servlet's cache under {@code prefix}.  Only the adaptive cache reports metrics,
+     * so this does nothing when the servlet was created from a {@link CacheBuilderSpec}.
+     */
+    public void registerMetrics(MetricRegistry registry, String prefix) {
+        if (cache instanceof AdaptiveLoadingCache) {
+            ((AdaptiveLoadingCache<?, ?>) cache).registerMetrics(registry, prefix);
+        }
+    }
+
+    /**
+     * Adds a tracer that is told how long each request spent in each phase of being served.  Requests are only timed
+     * while at least one tracer has been added.
+     */
+    public void addTracer(AssetTracer tracer) {
+        tracers.add(tracer);
+    }
+
+    @Override
+    public void init() throws ServletException {
+        // Keys leave out the context path, which relative references in pages still have to be resolved beneath
+        loader.setContextPath(getServletContext().getContextPath());
+    }
+
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        final String path = requestPath(req);
+        final AssetTrace trace = tracers.isEmpty() ? AssetTrace.DISABLED : AssetTrace.start(path);
         try {
-            final StringBuilder builder = new StringBuilder(req.getServletPath());
-            if (req.getPathInfo() != null) {
-                builder.append(req.getPathInfo());
+            // Each phase ends in a finally so that failed lookups and writes are timed too, misses above all
+            Asset asset;
+            trace.begin(AssetTrace.Phase.CACHE);
+            try {
+                asset = cache.getUnchecked(path);
+                if (asset != null && loader.isStale(path, asset.getGeneration())) {
+                    // The path was invalidated while this asset was being loaded, after it was checked in the loader
+                    cache.invalidate(path);
+                    asset = cache.getUnchecked(path);
+                }
+            } finally {
+                trace.end(AssetTrace.Phase.CACHE);
             }
-            Asset asset = cache.getUnchecked(builder.toString());
             if (asset == null) {
                 resp.sendError(HttpServletResponse.SC_NOT_FOUND);
                 return;
             }
 
-            // Check the etag...
-            if (asset.getETag().equals(req.getHeader(HttpHeaders.IF_NONE_MATCH))) {
-                resp.sendError(HttpServletResponse.SC_NOT_MODIFIED);
-                return;
+            // Everything served below comes from the one version, so the validators and headers match the body
+            final AssetVersion version = asset.current();
+
+            // Only assets that can never change are safe to revalidate without looking at them again
+            if (notModifiedFilter != null && asset instanceof StaticAsset) {
+                notModifiedFilter.record(path, version.getETag());
+
+                // An invalidation since the check above may have already told the filter to forget the path
+                if (loader.isStale(path, asset.getGeneration())) {
+                    notModifiedFilter.forget(path);
+                }
             }
 
-            // Check the last modified time...
-            if (asset.getLastModifiedTime() <= req.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE)) {
+            // Zero out the millis since the date we get back from If-Modified-Since will not have them
+            final long lastModifiedTime = serveLastModified ? (version.getLastModifiedTime() / 1000) * 1000 : 0;
+
+            // Check the etag...  When the client has one, it takes precedence over the last modified time.
+            final String ifNoneMatch = req.getHeader(HttpHeaders.IF_NONE_MATCH);
+            if (ifNoneMatch != null) {
+                if (version.getETag().equals(ifNoneMatch)) {
+                    resp.sendError(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
+                }
+            } else if (lastModifiedTime > 0 && lastModifiedTime <= req.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE)) {
+                // Check the last modified time...
                 resp.sendError(HttpServletResponse.SC_NOT_MODIFIED);
                 return;
             }
 
-            resp.setDateHeader(HttpHeaders.LAST_MODIFIED, asset.getLastModifiedTime());
-            resp.setHeader(HttpHeaders.ETAG, asset.getETag());
-
-            MediaType mediaType = DEFAULT_MEDIA_TYPE;
-            String mimeType = mimeTypes.getMimeByExtension(req.getRequestURI());
+            if (lastModifiedTime > 0) {
+                resp.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModifiedTime);
+            }
+            resp.setHeader(HttpHeaders.ETAG, version.getETag());
 
-            if (mimeType != null) {
-                try {
-                    mediaType = MediaType.parse(mimeType);
-                    if (defaultCharset != null && mediaType.is(MediaType.ANY_TEXT_TYPE)) {
-                        mediaType = mediaType.withCharset(defaultCharset);
-                    }
-                } catch (IllegalArgumentException ignore) {}
+            MediaType mediaType = mediaTypeOf(mimeTypes, req.getRequestURI());
+            if (mediaType == null) {
+                mediaType = DEFAULT_MEDIA_TYPE;
+            } else if (defaultCharset != null && mediaType.is(MediaType.ANY_TEXT_TYPE)) {
+                mediaType = mediaType.withCharset(defaultCharset);
             }
 
             resp.setContentType(mediaType.type() + "/" + mediaType.subtype());
@@ -143,159 +300,407 @@ class AssetServlet extends HttpServlet {
                 resp.setCharacterEncoding(mediaType.charset().get().toString());
             }
 
-            final ServletOutputStream output = resp.getOutputStream();
+            final String preloadLinks = version.getPreloadLinks();
+            if (preloadLinks != null) {
+                resp.setHeader(HttpHeaders.LINK, preloadLinks);
+            }
+
+            final byte[] resource = version.getResource();
+            trace.begin(AssetTrace.Phase.WRITE);
             try {
-                output.write(asset.getResource());
+                final ServletOutputStream output = resp.getOutputStream();
+                try {
+                    output.write(resource);
+                } finally {
+                    output.close();
+                }
             } finally {
-                output.close();
+                trace.end(AssetTrace.Phase.WRITE);
             }
         } catch (RuntimeException ignored) {
             resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+        } finally {
+            if (trace.isEnabled()) {
+                trace.finish();
+                for (AssetTracer tracer : tracers) {
+                    tracer.traced(trace);
+                }
+            }
+        }
+    }
+
+    /** The media type mapped to the extension of {@code path}, or null if there is no valid mapping. */
+    private static MediaType mediaTypeOf(MimeTypes mimeTypes, String path) {
+        String mimeType = mimeTypes.getMimeByExtension(path);
+        if (mimeType != null) {
+            try {
+                return MediaType.parse(mimeType);
+            } catch (IllegalArgumentException ignore) {}
         }
+        return null;
+    }
+
+    /** The path of the requested asset, relative to the servlet context. */
+    static String requestPath(HttpServletRequest req) {
+        final String pathInfo = req.getPathInfo();
+        return (pathInfo != null) ? req.getServletPath() + pathInfo : req.getServletPath();
+    }
+
+    /**
+     * Builds the cache described by {@code spec}.  Assets are only weighed by their size when the spec bounds the cache
+     * by {@code maximumWeight}; a {@code maximumSize} spec counts entries and would otherwise silently ignore the
+     * weigher.
+     */
+    private static LoadingCache<String, Asset> buildCache(CacheBuilderSpec spec, AssetLoader loader) {
+        CacheBuilder<Object, Object> builder = CacheBuilder.from(spec);
+        if (spec.toParsableString().contains("maximumWeight")) {
+            return builder.weigher(new AssetSizeWeigher()).build(loader);
+        }
+        return builder.build(loader);
     }
 
     private static class AssetLoader extends CacheLoader<String, Asset> {
-        private final String resourcePath;
         private final String uriPath;
         private final String indexFilename;
-        private final Iterable<Map.Entry<String, String>> overrides;
-
-        private AssetLoader(String resourcePath, String uriPath, String indexFilename, Iterable<Map.Entry<String, String>> overrides) {
-            final String trimmedPath = CharMatcher.is('/').trimFrom(resourcePath);
-            this.resourcePath = trimmedPath.isEmpty() ? trimmedPath : trimmedPath + "/";
+        private final List<Mount> overrides;
+        private final List<Mount> sources = new CopyOnWriteArrayList<Mount>();
+        private final Mount classpath;
+        private final MimeTypes mimeTypes;
+        private final AssetTransforms transforms;
+        private volatile String contextPath = "";
+        /** Counts invalidations; every load notes the count when it starts. */
+        private final AtomicLong invalidations = new AtomicLong();
+        /** The count at which each path was last invalidated; one entry per path ever invalidated. */
+        private final ConcurrentMap<String, Long> invalidatedAt = Maps.newConcurrentMap();
+
+        private AssetLoader(String resourcePath, String uriPath, String indexFilename, Iterable<Map.Entry<String, String>> overrides,
+                            MimeTypes mimeTypes, AssetTransforms transforms) {
             final String trimmedUri = CharMatcher.is('/').trimTrailingFrom(uriPath);
             this.uriPath = trimmedUri.length() == 0 ? "/" : trimmedUri;
             this.indexFilename = indexFilename;
-            this.overrides = overrides;
+            this.overrides = Lists.newArrayList();
+            for (Map.Entry<String, String> override : overrides) {
+                this.overrides.add(new Mount(override.getKey(), new PathAssetSource(Paths.get(override.getValue())), true));
+            }
+            this.classpath = new Mount(this.uriPath, new ClasspathAssetSource(resourcePath), false);
+            this.mimeTypes = mimeTypes;
+            this.transforms = transforms;
+        }
+
+        private void setContextPath(String contextPath) {
+            this.contextPath = contextPath;
+        }
+
+        private void addSource(String uriPath, AssetSource source) {
+            sources.add(new Mount(uriPath, source, !(source instanceof ClasspathAssetSource)));
+        }
+
+        /** Records that {@code key} was invalidated, so that loads of it that are already in flight are discarded. */
+        private void invalidated(String key) {
+            long generation = invalidations.incrementAndGet();
+            while (true) {
+                Long previous = invalidatedAt.get(key);
+                if (previous != null && previous >= generation) {
+                    return;
+                }
+                if ((previous == null) ? invalidatedAt.putIfAbsent(key, generation) == null
+                        : invalidatedAt.replace(key, previous, generation)) {
+                    return;
+                }
+            }
+        }
+
+        /** Whether {@code key} was invalidated after a load that started at {@code generation}. */
+        private boolean isStale(String key, long generation) {
+            Long invalidated = invalidatedAt.get(key);
+            return invalidated != null && invalidated > generation;
         }
 
         @Override
         public Asset load(String key) throws Exception {
             Preconditions.checkArgument(key.startsWith(uriPath));
 
-            Asset asset = loadOverride(key);
-            if (asset != null) {
-                return asset;
+            // Load again if the path is invalidated mid-load, rather than hand the cache what was read before
+            while (true) {
+                long generation = invalidations.get();
+                Asset asset = load(key, generation);
+                if (asset == null || !isStale(key, generation)) {
+                    return asset;
+                }
             }
+        }
 
-            final String requestedResourcePath = CharMatcher.is('/').trimFrom(key.substring(uriPath.length()));
-            final String absoluteRequestedResourcePath = CharMatcher.is('/').trimFrom(
-                    this.resourcePath + requestedResourcePath);
+        private Asset load(String key, long generation) throws IOException {
+            // Overrides win over other sources, which in turn win over the classpath
+            for (Mount mount : Iterables.concat(overrides, sources, Collections.singleton(classpath))) {
+                String path = mount.resolve(key);
+                if (path == null) {
+                    continue;
+                }
 
-            URL requestedResourceURL = Resources.getResource(absoluteRequestedResourcePath);
+                Asset asset = load(key, mount, path, generation);
+                if (asset != null) {
+                    return asset;
+                }
+            }
 
-            if (ResourceURL.isDirectory(requestedResourceURL)) {
-                if (indexFilename != null) {
-                    requestedResourceURL = Resources.getResource(absoluteRequestedResourcePath + '/' + indexFilename);
-                } else {
-                    // directory requested but no index file defined
-                    return null;
+            return null;
+        }
+
+        private Asset load(String key, Mount mount, String path, long generation) throws IOException {
+            final AssetTrace trace = AssetTrace.current();
+            String resolvedPath = path;
+            AssetStat stat;
+            trace.begin(AssetTrace.Phase.STAT);
+            try {
+                stat = AssetSources.stat(mount.source, path);
+                if (stat != null && stat.isDirectory()) {
+                    // A directory can only be served through its index file.  The index is only looked up once the
+                    // path is known to be a directory, so that sources without directories, such as a remote origin,
+                    // aren't asked for an index of every missing file.
+                    resolvedPath = (indexFilename == null) ? null
+                            : path.isEmpty() ? indexFilename : path + '/' + indexFilename;
+                    stat = (resolvedPath != null) ? AssetSources.stat(mount.source, resolvedPath) : null;
                 }
+            } finally {
+                trace.end(AssetTrace.Phase.STAT);
+            }
+            if (stat == null || stat.isDirectory()) {
+                return null;
+            }
+
+            // Assets are transformed according to the type they are served as, which is based on the requested path
+            final MediaType mediaType = Objects.firstNonNull(mediaTypeOf(mimeTypes, key), DEFAULT_MEDIA_TYPE);
+
+            // A missing time stays missing rather than becoming the load time, which would differ from node to node
+            final long lastModified = Math.max(stat.getLastModifiedTime(), 0);
+            if (mount.refreshing) {
+                return new SourceAsset(mount.source, resolvedPath, key, contextPath + key, mediaType, transforms,
+                        lastModified, generation);
             }
 
-            long lastModified = ResourceURL.getLastModified(requestedResourceURL);
-            if (lastModified < 1) {
-                // Something went wrong trying to get the last modified time: just use the current time
-                lastModified = System.currentTimeMillis();
+            final byte[] raw;
+            trace.begin(AssetTrace.Phase.READ);
+            try {
+                raw = AssetSources.read(mount.source, resolvedPath);
+            } finally {
+                trace.end(AssetTrace.Phase.READ);
             }
 
-            // zero out the millis since the date we get back from If-Modified-Since will not have them
-            lastModified = (lastModified / 1000) * 1000;
-            return new StaticAsset(Resources.toByteArray(requestedResourceURL), lastModified);
+            final byte[] resource;
+            trace.begin(AssetTrace.Phase.TRANSFORM);
+            try {
+                resource = transforms.apply(key, mediaType, raw);
+            } finally {
+                trace.end(AssetTrace.Phase.TRANSFORM);
+            }
+
+            trace.begin(AssetTrace.Phase.HASH);
+            try {
+                return new StaticAsset(new AssetVersion(resource, lastModified,
+                        preloadLinks(contextPath + key, mediaType, resource)), generation);
+            } finally {
+                trace.end(AssetTrace.Phase.HASH);
+            }
         }
+    }
 
-        private Asset loadOverride(String key) throws Exception {
-            // TODO: Support prefix matches only for directories
-            for (Map.Entry<String, String> override : overrides) {
-                File file = null;
-                if (override.getKey().equals(key)) {
-                    // We have an exact match
-                    file = new File(override.getValue());
-                } else if (key.startsWith(override.getKey())) {
-                    // This resource is in a mapped subdirectory
-                    file = new File(override.getValue(), key.substring(override.getKey().length()));
-                }
+    /**
+     * The preload links for an asset, computed once when the asset is loaded.  Only HTML pages reference other assets;
+     * their references are resolved against the full URI path that the page was requested at, including the context
+     * path.
+     */
+    private static String preloadLinks(String pageUri, MediaType mediaType, byte[] resource) {
+        return PreloadLinks.isHtml(mediaType) ? PreloadLinks.forHtml(resource, pageUri) : null;
+    }
 
-                if (file == null || !file.exists()) {
-                    continue;
-                }
+    /**
+     * The ETag of an asset, which depends on nothing but its contents so that every node serving the same bytes
+     * agrees on it.
+     */
+    private static String eTagOf(byte[] resource) {
+        return '"' + Hashing.murmur3_128().hashBytes(resource).toString() + '"';
+    }
 
-                if (file.isDirectory()) {
-                    file = new File(file, indexFilename);
-                }
+    /** An {@link AssetSource} mounted beneath a URI path. */
+    private static final class Mount {
+        private final String uriPath;
+        private final AssetSource source;
+        private final boolean refreshing;
+
+        /**
+         * @param uriPath    the URI path that the root of the source is served at
+         * @param source     the source of the assets
+         * @param refreshing whether assets should be reloaded when the source reports that they changed
+         */
+        private Mount(String uriPath, AssetSource source, boolean refreshing) {
+            this.uriPath = uriPath;
+            this.source = source;
+            this.refreshing = refreshing;
+        }
 
-                if (file.exists()) {
-                    return new FileSystemAsset(file);
-                }
+        /** The path within the source that {@code key} maps to, or null if the key isn't beneath this mount. */
+        private String resolve(String key) {
+            // TODO: Support prefix matches only for directories
+            if (!key.startsWith(uriPath)) {
+                return null;
             }
-
-            return null;
+            return CharMatcher.is('/').trimFrom(key.substring(uriPath.length()));
         }
     }
 
     private static interface Asset {
-        byte[] getResource();
-        String getETag();
-        long getLastModifiedTime();
+        /**
+         * The version of the asset to serve, reloaded first if its source reports that it changed.  A request reads
+         * everything it serves from the one version, so that the ETag and headers always match the body.
+         */
+        AssetVersion current();
+
+        /** The number of bytes in the version last loaded, without looking at the source. */
+        int size();
+
+        /** The count of invalidations when the load of this asset started. */
+        long getGeneration();
     }
 
     /** Weigh an asset according to the number of bytes it contains. */
     private static final class AssetSizeWeigher implements Weigher<String, Asset> {
         @Override
         public int weigh(String key, Asset asset) {
-            return asset.getResource().length;
+            return asset.size();
         }
     }
 
-    /**
-     * An asset implementation backed by the file-system.  If the backing file changes on disk, then this asset
-     * will automatically reload its contents from disk.
-     */
-    private static class FileSystemAsset implements Asset {
-        private final File file;
-        private byte[] bytes;
-        private String eTag;
-        private long lastModifiedTime;
-
-        public FileSystemAsset(File file) {
-            this.file = file;
-            refresh();
+    /** The contents of an asset as it was loaded at one point in time, along with everything derived from them. */
+    private static final class AssetVersion {
+        private final byte[] resource;
+        private final String eTag;
+        private final long lastModifiedTime;
+        private final String preloadLinks;
+
+        /**
+         * @param resource         the contents of the asset, after transforms
+         * @param lastModifiedTime the modification time the source reported for the contents, or 0 if it has none
+         * @param preloadLinks     the value of the {@code Link} header for the asset, or null if there are none
+         */
+        private AssetVersion(byte[] resource, long lastModifiedTime, String preloadLinks) {
+            this.resource = resource;
+            this.eTag = eTagOf(resource);
+            this.lastModifiedTime = lastModifiedTime;
+            this.preloadLinks = preloadLinks;
         }
 
-        @Override
         public byte[] getResource() {
-            maybeRefresh();
-            return bytes;
+            return resource;
         }
 
-        @Override
         public String getETag() {
-            maybeRefresh();
             return eTag;
         }
 
-        @Override
         public long getLastModifiedTime() {
-            maybeRefresh();
-            return (lastModifiedTime / 1000) * 1000;
+            return lastModifiedTime;
         }
 
-        private synchronized void maybeRefresh() {
-            if (lastModifiedTime != file.lastModified()) {
-                refresh();
+        /** The value of the {@code Link} header preloading the assets this one references, or null if there are none. */
+        public String getPreloadLinks() {
+            return preloadLinks;
+        }
+    }
+
+    /**
+     * An asset implementation backed by an {@link AssetSource}.  The source is checked once per request, and if it
+     * reports that the asset changed, then this asset will automatically reload its contents from the source.
+     */
+    private static class SourceAsset implements Asset {
+        private final AssetSource source;
+        private final String path;
+        private final String key;
+        private final String pageUri;
+        private final MediaType mediaType;
+        private final AssetTransforms transforms;
+        private final long generation;
+        private volatile AssetVersion version;
+
+        public SourceAsset(AssetSource source, String path, String key, String pageUri, MediaType mediaType,
+                           AssetTransforms transforms, long lastModifiedTime, long generation) throws IOException {
+            this.source = source;
+            this.path = path;
+            this.key = key;
+            this.pageUri = pageUri;
+            this.mediaType = mediaType;
+            this.transforms = transforms;
+            this.generation = generation;
+            this.version = load(lastModifiedTime);
+        }
+
+        @Override
+        public AssetVersion current() {
+            // Look at the source without holding the lock, so that a slow source doesn't hold up other requests
+            long lastModifiedTime = currentLastModifiedTime();
+            AssetVersion loaded = version;
+            if (loaded.getLastModifiedTime() == lastModifiedTime) {
+                return loaded;
             }
+
+            synchronized (this) {
+                if (version.getLastModifiedTime() != lastModifiedTime) {
+                    try {
+                        version = load(lastModifiedTime);
+                    } catch (IOException e) {
+                        // Ignored, keep serving the version that was already loaded
+                    }
+                }
+                return version;
+            }
+        }
+
+        @Override
+        public int size() {
+            return version.getResource().length;
         }
 
-        private synchronized void refresh() {
+        @Override
+        public long getGeneration() {
+            return generation;
+        }
+
+        private AssetVersion load(long lastModifiedTime) throws IOException {
+            AssetTrace trace = AssetTrace.current();
+            byte[] raw;
+            trace.begin(AssetTrace.Phase.READ);
             try {
-                byte[] newBytes = Files.toByteArray(file);
-                String newETag = Hashing.murmur3_128().hashBytes(newBytes).toString();
+                raw = AssetSources.read(source, path);
+            } finally {
+                trace.end(AssetTrace.Phase.READ);
+            }
 
-                bytes = newBytes;
-                eTag = '"' + newETag + '"';
-                lastModifiedTime = file.lastModified();
+            byte[] resource;
+            trace.begin(AssetTrace.Phase.TRANSFORM);
+            try {
+                resource = transforms.apply(key, mediaType, raw);
+            } finally {
+                trace.end(AssetTrace.Phase.TRANSFORM);
+            }
+
+            trace.begin(AssetTrace.Phase.HASH);
+            try {
+                return new AssetVersion(resource, lastModifiedTime, preloadLinks(pageUri, mediaType, resource));
+            } finally {
+                trace.end(AssetTrace.Phase.HASH);
+            }
+        }
+
+        private long currentLastModifiedTime() {
+            AssetTrace trace = AssetTrace.current();
+            trace.begin(AssetTrace.Phase.STAT);
+            try {
+                AssetStat stat = AssetSources.stat(source, path);
+                return (stat != null) ? Math.max(stat.getLastModifiedTime(), 0) : 0;
             } catch (IOException e) {
-                // Ignored, don't update anything
+                return 0;
+            } finally {
+                trace.end(AssetTrace.Phase.STAT);
             }
         }
     }
@@ -305,26 +710,27 @@ class AssetServlet extends HttpServlet {
      * loaded from the classpath) and will never change.
      */
     private static class StaticAsset implements Asset {
-        private final byte[] resource;
-        private final String eTag;
-        private final long lastModifiedTime;
+        private final AssetVersion version;
+        private final long generation;
 
-        private StaticAsset(byte[] resource, long lastModifiedTime) {
-            this.resource = resource;
-            this.eTag = Hashing.murmur3_128().hashBytes(resource).toString();
-            this.lastModifiedTime = lastModifiedTime;
+        private StaticAsset(AssetVersion version, long generation) {
+            this.version = version;
+            this.generation = generation;
         }
 
-        public byte[] getResource() {
-            return resource;
+        @Override
+        public AssetVersion current() {
+            return version;
         }
 
-        public String getETag() {
-            return eTag;
+        @Override
+        public int size() {
+            return version.getResource().length;
         }
 
-        public long getLastModifiedTime() {
-            return lastModifiedTime;
+        @Override
+        public long getGeneration() {
+            return generation;
         }
     }
 }
@@ -0,0 +1,32 @@
+package com.bazaarvoice.dropwizard.assets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A place that asset contents are read from, such as the classpath, a directory on disk or a remote origin.  Paths
+ * are relative to the root of the source, use {@code /} as their separator and never start with one; the empty path
+ * names the root itself.  Implementations must be thread-safe.
+ */
+public interface AssetSource {
+    /**
+     * Looks up the metadata for several paths at once.  Asking about a file and the index file of the same path in one
+     * call lets a source answer both with a single round trip.
+     *
+     * @param paths the paths to look up
+     * @return the metadata of each path that exists; paths that don't exist are absent from the map
+     */
+    Map<String, AssetStat> stat(Collection<String> paths) throws IOException;
+
+    /**
+     * Opens a stream over part of the contents of a file.  The caller is responsible for closing the stream.
+     *
+     * @param path   the path of the file
+     * @param offset the number of bytes to skip before the first byte returned
+     * @param length the maximum number of bytes to return, or a negative number to read to the end of the file
+     * @throws java.io.FileNotFoundException if the file doesn't exist or is a directory
+     */
+    InputStream open(String path, long offset, long length) throws IOException;
+}
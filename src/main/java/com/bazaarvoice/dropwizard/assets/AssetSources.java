@@ -0,0 +1,70 @@
+package com.bazaarvoice.dropwizard.assets;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+/** Helpers for working with {@link AssetSource}s. */
+final class AssetSources {
+    private static final String CLASSPATH_PREFIX = "classpath:";
+
+    private AssetSources() {
+    }
+
+    /**
+     * Creates the source described by {@code location}.  A location is either a {@code classpath:} resource path, an
+     * {@code http:} or {@code https:} URL, a {@code file:} URI or a plain filesystem path.
+     */
+    static AssetSource fromLocation(String location) {
+        if (location.startsWith(CLASSPATH_PREFIX)) {
+            return new ClasspathAssetSource(location.substring(CLASSPATH_PREFIX.length()));
+        }
+        if (location.startsWith("http:") || location.startsWith("https:")) {
+            return new HttpAssetSource(URI.create(location));
+        }
+        if (location.startsWith("file:")) {
+            return new PathAssetSource(Paths.get(URI.create(location)));
+        }
+        return new PathAssetSource(Paths.get(location));
+    }
+
+    /** Looks up the metadata of a single path, returning null if it doesn't exist. */
+    static AssetStat stat(AssetSource source, String path) throws IOException {
+        return source.stat(Collections.singleton(path)).get(path);
+    }
+
+    /** Reads the entire contents of a file. */
+    static byte[] read(AssetSource source, String path) throws IOException {
+        InputStream in = source.open(path, 0, -1);
+        try {
+            return ByteStreams.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Restricts {@code in} to the requested range of its contents. */
+    static InputStream slice(InputStream in, long offset, long length) throws IOException {
+        try {
+            ByteStreams.skipFully(in, offset);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return (length < 0) ? in : ByteStreams.limit(in, length);
+    }
+
+    /** Whether {@code path} tries to escape the root of its source. */
+    static boolean isTraversal(String path) {
+        for (String segment : path.split("/")) {
+            if ("..".equals(segment)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
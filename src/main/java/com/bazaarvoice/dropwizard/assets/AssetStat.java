@@ -0,0 +1,31 @@
+package com.bazaarvoice.dropwizard.assets;
+
+/** The metadata of a path within an {@link AssetSource}. */
+public final class AssetStat {
+    private final boolean directory;
+    private final long length;
+    private final long lastModifiedTime;
+
+    /**
+     * @param directory        whether the path is a directory rather than a file
+     * @param length           the size of the file in bytes, or -1 if it isn't known without reading it
+     * @param lastModifiedTime when the path was last changed, in milliseconds since the epoch, or 0 if unknown
+     */
+    public AssetStat(boolean directory, long length, long lastModifiedTime) {
+        this.directory = directory;
+        this.length = length;
+        this.lastModifiedTime = lastModifiedTime;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getLastModifiedTime() {
+        return lastModifiedTime;
+    }
+}
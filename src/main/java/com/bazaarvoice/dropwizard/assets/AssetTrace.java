@@ -0,0 +1,120 @@
+package com.bazaarvoice.dropwizard.assets;
+
+/**
+ * The timing of a single asset request, broken down into the phases of serving it.  Phases may nest: the time spent
+ * in {@link Phase#CACHE} includes any loading phases of a miss, and the rest of it is time spent waiting for the cache,
+ * for example on a load of the same asset by another request.  A phase entered several times, such as the stats of an
+ * override that is checked for changes more than once, accumulates all of its time.
+ * <p/>
+ * Traces are only recorded while at least one {@link AssetTracer} is registered; otherwise every request shares a
+ * disabled trace whose methods do nothing.
+ */
+public final class AssetTrace {
+    /** The phases of serving an asset. */
+    public enum Phase {
+        /** Looking the asset up in the cache, including loading it on a miss. */
+        CACHE,
+        /** Looking up the metadata of the asset in its source, such as filesystem stats of an override. */
+        STAT,
+        /** Reading the contents of the asset from its source, such as a jar. */
+        READ,
+        /** Running the transformers registered for the asset's type. */
+        TRANSFORM,
+        /** Hashing the contents of the asset into its ETag and scanning it for preload links. */
+        HASH,
+        /** Writing the asset to the client. */
+        WRITE
+    }
+
+    static final AssetTrace DISABLED = new AssetTrace(null, false);
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final ThreadLocal<AssetTrace> CURRENT = new ThreadLocal<AssetTrace>();
+
+    private final String path;
+    private final boolean enabled;
+    private final long startNanos;
+    private final long[] phaseStartNanos = new long[PHASES.length];
+    private final long[] phaseNanos = new long[PHASES.length];
+    private int enteredPhases;
+    private long endNanos;
+
+    private AssetTrace(String path, boolean enabled) {
+        this.path = path;
+        this.enabled = enabled;
+        this.startNanos = enabled ? System.nanoTime() : 0;
+    }
+
+    /** Starts tracing a request for {@code path} on the current thread. */
+    static AssetTrace start(String path) {
+        AssetTrace trace = new AssetTrace(path, true);
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    /** The trace of the request being served by the current thread, or the disabled trace if there is none. */
+    static AssetTrace current() {
+        AssetTrace trace = CURRENT.get();
+        return (trace != null) ? trace : DISABLED;
+    }
+
+    void begin(Phase phase) {
+        if (enabled) {
+            enteredPhases |= 1 << phase.ordinal();
+            phaseStartNanos[phase.ordinal()] = System.nanoTime();
+        }
+    }
+
+    void end(Phase phase) {
+        if (enabled) {
+            phaseNanos[phase.ordinal()] += System.nanoTime() - phaseStartNanos[phase.ordinal()];
+        }
+    }
+
+    /** Stops the clock on the request and detaches the trace from the current thread. */
+    void finish() {
+        if (enabled) {
+            endNanos = System.nanoTime();
+            CURRENT.remove();
+        }
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /** The URI path that was requested. */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Whether the request entered {@code phase} at all.  A hit never stats, reads, transforms or hashes its asset, and
+     * a phase that didn't run is different from one that took no measurable time.
+     */
+    public boolean isEntered(Phase phase) {
+        return (enteredPhases & (1 << phase.ordinal())) != 0;
+    }
+
+    /** The time spent in {@code phase}, in nanoseconds, or 0 if the phase wasn't entered. */
+    public long getNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    /** The time spent serving the whole request, in nanoseconds. */
+    public long getTotalNanos() {
+        return endNanos - startNanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(path).append(": total=").append(getTotalNanos() / 1000).append("us");
+        for (Phase phase : PHASES) {
+            if (isEntered(phase)) {
+                builder.append(' ').append(phase.name().toLowerCase()).append('=')
+                        .append(phaseNanos[phase.ordinal()] / 1000).append("us");
+            }
+        }
+        return builder.toString();
+    }
+}
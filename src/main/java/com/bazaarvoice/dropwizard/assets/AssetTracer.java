@@ -0,0 +1,11 @@
+package com.bazaarvoice.dropwizard.assets;
+
+/**
+ * Receives the timing of asset requests, for example to record latency histograms or to log slow requests.  Tracers
+ * are called on the request thread once the response has been written, so they should be quick and must not throw.
+ *
+ * @see AssetTrace
+ */
+public interface AssetTracer {
+    void traced(AssetTrace trace);
+}
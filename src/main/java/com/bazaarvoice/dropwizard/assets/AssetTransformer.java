@@ -0,0 +1,18 @@
+package com.bazaarvoice.dropwizard.assets;
+
+import java.io.IOException;
+
+/**
+ * Rewrites the contents of an asset before it is cached, for example to minify a script or to transcode a stylesheet
+ * to another charset.  Transformers are registered for a MIME type and run whenever an asset of that type is loaded or
+ * reloaded; the transformed contents are what get cached and served, and the asset's ETag is derived from them.
+ * Implementations must be thread-safe.
+ */
+public interface AssetTransformer {
+    /**
+     * @param path    the URI path of the asset being transformed
+     * @param content the current contents of the asset
+     * @return the transformed contents
+     */
+    byte[] transform(String path, byte[] content) throws IOException;
+}
@@ -0,0 +1,59 @@
+package com.bazaarvoice.dropwizard.assets;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimaps;
+import com.google.common.net.MediaType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The {@link AssetTransformer}s registered for each MIME type.  Transformers run on the thread loading the asset, but
+ * no more than one chain per processor runs at a time, so that expensive transforms of many cold assets can't
+ * monopolize the CPU of the server.  A load that finds every permit taken waits for one; loads of assets without
+ * transformers, and requests for cached assets, never wait.
+ */
+final class AssetTransforms {
+    private static final Logger LOG = LoggerFactory.getLogger(AssetTransforms.class);
+
+    private final ListMultimap<MediaType, AssetTransformer> transformers =
+            Multimaps.synchronizedListMultimap(ArrayListMultimap.<MediaType, AssetTransformer>create());
+    private final Semaphore permits = new Semaphore(Runtime.getRuntime().availableProcessors());
+
+    /** Runs {@code transformer} on every asset of {@code mediaType}, after any transformers already added for it. */
+    void add(MediaType mediaType, AssetTransformer transformer) {
+        transformers.put(mediaType.withoutParameters(), transformer);
+    }
+
+    /**
+     * Transforms the contents of an asset with each of the transformers for its MIME type in turn.  If a transformer
+     * fails, the asset is served untransformed rather than not at all.
+     */
+    byte[] apply(String path, MediaType mediaType, byte[] content) {
+        final List<AssetTransformer> chain;
+        synchronized (transformers) {
+            chain = ImmutableList.copyOf(transformers.get(mediaType.withoutParameters()));
+        }
+        if (chain.isEmpty()) {
+            return content;
+        }
+
+        permits.acquireUninterruptibly();
+        try {
+            byte[] result = content;
+            for (AssetTransformer transformer : chain) {
+                result = transformer.transform(path, result);
+            }
+            return result;
+        } catch (Exception e) {
+            LOG.warn("Unable to transform asset {}, serving it untransformed", path, e);
+            return content;
+        } finally {
+            permits.release();
+        }
+    }
+}
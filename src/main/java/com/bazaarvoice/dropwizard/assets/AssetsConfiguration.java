@@ -1,10 +1,13 @@
 package com.bazaarvoice.dropwizard.assets;
 
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import javax.validation.constraints.NotNull;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 public class AssetsConfiguration {
@@ -12,24 +15,114 @@ public class AssetsConfiguration {
     @JsonProperty
     private String cacheSpec = ConfiguredAssetsBundle.DEFAULT_CACHE_SPEC.toParsableString();
 
+    @JsonProperty
+    private Long adaptiveCacheMaximumBytes = null;
+
+    @JsonProperty
+    private boolean serveLastModified = true;
+
+    @JsonProperty
+    private Integer invalidationPort = null;
+
+    @JsonProperty
+    private boolean traceHistograms = false;
+
+    @JsonProperty
+    private Long slowRequestThresholdMillis = null;
+
+    @JsonProperty
+    private double slowRequestSampleRate = 1.0;
+
+    @NotNull
+    @JsonProperty
+    private List<String> invalidationPeers = Lists.newArrayList();
+
     @NotNull
     @JsonProperty
     private Map<String, String> overrides = Maps.newHashMap();
     
+    @NotNull
+    @JsonProperty
+    private Map<String, String> sources = Maps.newLinkedHashMap();
+
     @NotNull
     @JsonProperty
     private Map<String, String> mimeTypes = Maps.newHashMap();
 
+    @NotNull
+    @JsonProperty
+    private Map<String, String> sourceCharsets = Maps.newHashMap();
+
     /** The caching specification for how to memoize assets. */
     public String getCacheSpec() {
         return cacheSpec;
     }
 
+    /**
+     * The maximum number of bytes of asset content to cache when the cache should adapt to the working set, or null to
+     * size the cache with {@link #getCacheSpec()} instead.
+     */
+    public Long getAdaptiveCacheMaximumBytes() {
+        return adaptiveCacheMaximumBytes;
+    }
+
+    /**
+     * Whether responses carry a {@code Last-Modified} header.  Turn this off when several nodes serve the same assets,
+     * so that caches only validate assets by their ETag, which is derived from their contents alone.
+     */
+    public boolean isServeLastModified() {
+        return serveLastModified;
+    }
+
+    /**
+     * The UDP port to receive asset invalidations from peers on, or null to not share invalidations with peers.
+     */
+    public Integer getInvalidationPort() {
+        return invalidationPort;
+    }
+
+    /** The {@code host:port} addresses of the peers that asset invalidations are sent to. */
+    public List<String> getInvalidationPeers() {
+        return Collections.unmodifiableList(invalidationPeers);
+    }
+
+    /** Whether to record histograms of the time asset requests spend in each phase of being served. */
+    public boolean isTraceHistograms() {
+        return traceHistograms;
+    }
+
+    /** The duration above which asset requests are logged along with their timings, or null to not log them. */
+    public Long getSlowRequestThresholdMillis() {
+        return slowRequestThresholdMillis;
+    }
+
+    /** The fraction of the slow asset requests to log. */
+    public double getSlowRequestSampleRate() {
+        return slowRequestSampleRate;
+    }
+
     public Iterable<Map.Entry<String, String>> getOverrides() {
         return Iterables.unmodifiableIterable(overrides.entrySet());
     }
 
+    /**
+     * Additional places to serve assets from, keyed by the URI path they are served at.  Each location is a
+     * {@code classpath:} resource path, an {@code http:} or {@code https:} URL, a {@code file:} URI or a plain
+     * filesystem path.  Sources are consulted in order, after the overrides and before the bundle's classpath assets.
+     */
+    public Iterable<Map.Entry<String, String>> getSources() {
+        return Iterables.unmodifiableIterable(sources.entrySet());
+    }
+
     public Iterable<Map.Entry<String, String>> getMimeTypes() {
         return Iterables.unmodifiableIterable(mimeTypes.entrySet());
     }
+
+    /**
+     * The charsets that assets of each MIME type are stored in, when it differs from the charset they are served in.
+     * Assets of these types are transcoded once when they are loaded.
+     */
+    public Iterable<Map.Entry<String, String>> getSourceCharsets() {
+        return Iterables.unmodifiableIterable(sourceCharsets.entrySet());
+    }
 }
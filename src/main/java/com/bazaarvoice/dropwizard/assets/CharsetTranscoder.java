@@ -0,0 +1,26 @@
+package com.bazaarvoice.dropwizard.assets;
+
+import java.nio.charset.Charset;
+
+/** A transformer that re-encodes text assets stored in one charset into another. */
+public class CharsetTranscoder implements AssetTransformer {
+    private final Charset sourceCharset;
+    private final Charset targetCharset;
+
+    /**
+     * @param sourceCharset the charset the assets are stored in
+     * @param targetCharset the charset the assets are served in
+     */
+    public CharsetTranscoder(Charset sourceCharset, Charset targetCharset) {
+        this.sourceCharset = sourceCharset;
+        this.targetCharset = targetCharset;
+    }
+
+    @Override
+    public byte[] transform(String path, byte[] content) {
+        if (sourceCharset.equals(targetCharset)) {
+            return content;
+        }
+        return new String(content, sourceCharset).getBytes(targetCharset);
+    }
+}
@@ -0,0 +1,180 @@
+package com.bazaarvoice.dropwizard.assets;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import io.dropwizard.servlets.assets.ResourceURL;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An asset source that reads resources from the classpath of the context class loader, rooted at a resource path.
+ * Resources may live in directories or in jars.
+ * <p/>
+ * The classpath doesn't change while the application runs, so the metadata of every path is resolved once and then
+ * remembered.  The part of a jar beneath the resource path is indexed with a single scan, which tells directories apart
+ * from files (and finds the index files of directories) without opening a connection to the jar.  Jars are indexed
+ * when their entry for the resource path is found, before the first lookup, or else when one of their resources is
+ * first looked up.  Jars often have no entries for directories, which the class loader then can't find; those are
+ * found through the indexes instead.
+ */
+public class ClasspathAssetSource implements AssetSource {
+    private static final String JAR_SEPARATOR = "!/";
+    private static final int MAXIMUM_RESOLUTIONS = 10000;
+
+    private final String root;
+    private final Cache<String, Optional<AssetStat>> resolutions =
+            CacheBuilder.newBuilder().maximumSize(MAXIMUM_RESOLUTIONS).build();
+    private final ConcurrentMap<String, JarIndex> jars = Maps.newConcurrentMap();
+    private volatile boolean rootsIndexed;
+
+    /** @param resourcePath the resource path (in the classpath) that paths are relative to */
+    public ClasspathAssetSource(String resourcePath) {
+        this.root = CharMatcher.is('/').trimFrom(resourcePath);
+    }
+
+    @Override
+    public Map<String, AssetStat> stat(Collection<String> paths) throws IOException {
+        Map<String, AssetStat> stats = Maps.newHashMap();
+        for (String path : paths) {
+            AssetStat stat = resolve(path);
+            if (stat != null) {
+                stats.put(path, stat);
+            }
+        }
+        return stats;
+    }
+
+    @Override
+    public InputStream open(String path, long offset, long length) throws IOException {
+        AssetStat stat = resolve(path);
+        URL url = (stat != null && !stat.isDirectory()) ? getResource(path) : null;
+        if (url == null) {
+            throw new FileNotFoundException(resourceName(path));
+        }
+        return AssetSources.slice(url.openStream(), offset, length);
+    }
+
+    private AssetStat resolve(String path) throws IOException {
+        if (AssetSources.isTraversal(path)) {
+            return null;
+        }
+
+        Optional<AssetStat> resolution = resolutions.getIfPresent(path);
+        if (resolution == null) {
+            resolution = Optional.fromNullable(lookup(path));
+            resolutions.put(path, resolution);
+        }
+        return resolution.orNull();
+    }
+
+    private AssetStat lookup(String path) throws IOException {
+        indexRoots();
+
+        URL url = getResource(path);
+        if (url != null) {
+            return stat(url, resourceName(path));
+        }
+
+        // A directory without an entry of its own is invisible to the class loader, but not to the jar's index
+        String name = resourceName(path);
+        for (JarIndex jar : jars.values()) {
+            AssetStat stat = jar.stat(name);
+            if (stat != null) {
+                return stat;
+            }
+        }
+        return null;
+    }
+
+    /** Indexes the jars that have an entry for the resource path, once, so that their directories can be found. */
+    private void indexRoots() throws IOException {
+        if (rootsIndexed) {
+            return;
+        }
+
+        Enumeration<URL> roots = classLoader().getResources(root);
+        while (roots.hasMoreElements()) {
+            URL url = roots.nextElement();
+            if ("jar".equals(url.getProtocol())) {
+                jarIndex(url);
+            }
+        }
+        rootsIndexed = true;
+    }
+
+    private AssetStat stat(URL url, String name) throws IOException {
+        if ("jar".equals(url.getProtocol())) {
+            JarIndex jar = jarIndex(url);
+            if (jar != null) {
+                return jar.stat(name);
+            }
+        }
+
+        // Classpath resources don't expose their size without being read
+        return new AssetStat(isDirectory(url), -1, ResourceURL.getLastModified(url));
+    }
+
+    /** The index of the jar that {@code url} points into, or null if it isn't a plain jar on the filesystem. */
+    private JarIndex jarIndex(URL url) throws IOException {
+        String file = url.getFile();
+        int separator = file.indexOf(JAR_SEPARATOR);
+        if (separator < 0 || file.indexOf(JAR_SEPARATOR, separator + 1) >= 0 || !file.startsWith("file:")) {
+            // Nested jars and remote jars are left to the generic lookup
+            return null;
+        }
+
+        String jarUrl = file.substring(0, separator);
+        JarIndex jar = jars.get(jarUrl);
+        if (jar == null) {
+            try {
+                jar = JarIndex.scan(new File(new URI(jarUrl)), root);
+            } catch (URISyntaxException e) {
+                return null;
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            JarIndex existing = jars.putIfAbsent(jarUrl, jar);
+            if (existing == null) {
+                // Paths that were missing may be directories of the new jar
+                resolutions.invalidateAll();
+            }
+            jar = (existing != null) ? existing : jar;
+        }
+        return jar;
+    }
+
+    private static boolean isDirectory(URL url) throws IOException {
+        try {
+            return ResourceURL.isDirectory(url);
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid resource URL: " + url, e);
+        }
+    }
+
+    private URL getResource(String path) {
+        return classLoader().getResource(resourceName(path));
+    }
+
+    private static ClassLoader classLoader() {
+        return Objects.firstNonNull(
+                Thread.currentThread().getContextClassLoader(), ClasspathAssetSource.class.getClassLoader());
+    }
+
+    private String resourceName(String path) {
+        return CharMatcher.is('/').trimFrom(root + '/' + path);
+    }
+}
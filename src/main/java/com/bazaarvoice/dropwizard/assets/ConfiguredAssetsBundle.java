@@ -1,13 +1,27 @@
 package com.bazaarvoice.dropwizard.assets;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.cache.CacheBuilderSpec;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.net.HostAndPort;
+import com.google.common.net.MediaType;
 import io.dropwizard.ConfiguredBundle;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 
+import javax.servlet.DispatcherType;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
  * An assets bundle (like {@link io.dropwizard.assets.AssetsBundle}) that utilizes configuration to provide the
@@ -27,6 +41,11 @@ public class ConfiguredAssetsBundle implements ConfiguredBundle<AssetsBundleConf
     private final String uriPath;
     private final String indexFile;
     private final String assetsName;
+    private final Map<String, AssetSource> sources = Maps.newLinkedHashMap();
+    private final ListMultimap<MediaType, AssetTransformer> transformers = ArrayListMultimap.create();
+    private final List<AssetTracer> tracers = Lists.newArrayList();
+    private InvalidationBroadcaster invalidationBroadcaster;
+    private AssetServlet servlet;
 
     /**
      * Creates a new {@link ConfiguredAssetsBundle} which serves up static assets from
@@ -131,6 +150,62 @@ public class ConfiguredAssetsBundle implements ConfiguredBundle<AssetsBundleConf
         this.assetsName = assetsName;
     }
 
+    /**
+     * Serves assets from {@code source} beneath {@code uriPath}, for example from an {@link InMemoryAssetSource}.
+     * Sources added here are consulted after the overrides and sources from the configuration, and before the
+     * bundle's classpath assets.
+     *
+     * @param uriPath the uri path that the root of the source is served at
+     * @param source  the source of the assets
+     */
+    public ConfiguredAssetsBundle addSource(String uriPath, AssetSource source) {
+        sources.put(uriPath, source);
+        return this;
+    }
+
+    /**
+     * Transforms every asset of {@code mediaType} with {@code transformer} before it is cached, for example to minify
+     * it.  Transformers for the same type run in the order they were added, after any transcoding configured through
+     * {@link AssetsConfiguration#getSourceCharsets()}.
+     *
+     * @param mediaType   the type of the assets to transform
+     * @param transformer the transformer to run
+     */
+    public ConfiguredAssetsBundle addTransformer(MediaType mediaType, AssetTransformer transformer) {
+        transformers.put(mediaType, transformer);
+        return this;
+    }
+
+    /**
+     * Tells {@code tracer} how long each asset request spent in each phase of being served, in addition to any tracers
+     * enabled through the configuration.
+     */
+    public ConfiguredAssetsBundle addTracer(AssetTracer tracer) {
+        tracers.add(tracer);
+        return this;
+    }
+
+    /**
+     * Shares asset invalidations with peers through {@code invalidationBroadcaster}, for example a
+     * {@link LocalInvalidationBroadcaster} shared by several bundles.  A broadcaster configured through
+     * {@link AssetsConfiguration#getInvalidationPort()} takes precedence over this one.
+     */
+    public ConfiguredAssetsBundle setInvalidationBroadcaster(InvalidationBroadcaster invalidationBroadcaster) {
+        this.invalidationBroadcaster = invalidationBroadcaster;
+        return this;
+    }
+
+    /**
+     * Evicts the asset served at {@code path} from the cache, and from the caches of any peers.  The bundle must have
+     * been run first.
+     *
+     * @param path the uri path of the asset
+     */
+    public void invalidate(String path) throws IOException {
+        checkState(servlet != null, "The assets bundle has not been run");
+        servlet.invalidate(path);
+    }
+
     @Override
     public void run(AssetsBundleConfiguration bundleConfig, Environment env) throws Exception {
         AssetsConfiguration config = bundleConfig.getAssetsConfiguration();
@@ -143,8 +218,69 @@ public class ConfiguredAssetsBundle implements ConfiguredBundle<AssetsBundleConf
         Iterable<Map.Entry<String, String>> overrides = config.getOverrides();
         Iterable<Map.Entry<String, String>> mimeTypes = config.getMimeTypes();
 
-        AssetServlet servlet = new AssetServlet(resourcePath, spec, uriPath, indexFile, overrides, mimeTypes);
+        // An adaptive cache size replaces the size bounds of the cache spec entirely
+        Long maximumCacheBytes = config.getAdaptiveCacheMaximumBytes();
+        AssetServlet servlet = (maximumCacheBytes != null)
+                ? new AssetServlet(resourcePath, maximumCacheBytes, uriPath, indexFile, overrides, mimeTypes)
+                : new AssetServlet(resourcePath, spec, uriPath, indexFile, overrides, mimeTypes);
+
+        for (Map.Entry<String, String> source : config.getSources()) {
+            servlet.addSource(source.getKey(), AssetSources.fromLocation(source.getValue()));
+        }
+        for (Map.Entry<String, AssetSource> source : sources.entrySet()) {
+            servlet.addSource(source.getKey(), source.getValue());
+        }
+
+        // Transcoding runs first so that other transformers see assets in the charset they are served in
+        for (Map.Entry<String, String> sourceCharset : config.getSourceCharsets()) {
+            servlet.addTransformer(MediaType.parse(sourceCharset.getKey()),
+                    new CharsetTranscoder(Charset.forName(sourceCharset.getValue()), servlet.getDefaultCharset()));
+        }
+        for (Map.Entry<MediaType, AssetTransformer> transformer : transformers.entries()) {
+            servlet.addTransformer(transformer.getKey(), transformer.getValue());
+        }
+
+        servlet.setServeLastModified(config.isServeLastModified());
+
+        InvalidationBroadcaster broadcaster = invalidationBroadcaster;
+        if (config.getInvalidationPort() != null) {
+            List<InetSocketAddress> peers = Lists.newArrayList();
+            for (String peer : config.getInvalidationPeers()) {
+                HostAndPort hostAndPort = HostAndPort.fromString(peer);
+                peers.add(new InetSocketAddress(hostAndPort.getHostText(), hostAndPort.getPort()));
+            }
+            DatagramInvalidationBroadcaster datagramBroadcaster =
+                    new DatagramInvalidationBroadcaster(new InetSocketAddress(config.getInvalidationPort()), peers);
+            env.lifecycle().manage(datagramBroadcaster);
+            broadcaster = datagramBroadcaster;
+        }
+        if (broadcaster != null) {
+            servlet.setInvalidationBroadcaster(broadcaster);
+        }
+
+        servlet.registerMetrics(env.metrics(), MetricRegistry.name(ConfiguredAssetsBundle.class, assetsName, "cache"));
+
+        if (config.isTraceHistograms()) {
+            servlet.addTracer(new HistogramAssetTracer(env.metrics(),
+                    MetricRegistry.name(ConfiguredAssetsBundle.class, assetsName, "trace")));
+        }
+        if (config.getSlowRequestThresholdMillis() != null) {
+            servlet.addTracer(new SlowRequestLogTracer(config.getSlowRequestThresholdMillis(),
+                    config.getSlowRequestSampleRate()));
+        }
+        for (AssetTracer tracer : tracers) {
+            servlet.addTracer(tracer);
+        }
+
         env.servlets().addServlet(assetsName, servlet).addMapping(uriPath + "*");
+
+        // Answer revalidations of classpath assets before they are dispatched to the servlet
+        NotModifiedFilter filter = new NotModifiedFilter();
+        servlet.setNotModifiedFilter(filter);
+        env.servlets().addFilter(assetsName + "-not-modified", filter)
+                .addMappingForUrlPatterns(EnumSet.of(DispatcherType.REQUEST), true, uriPath + "*");
+
+        this.servlet = servlet;
     }
 
     @Override
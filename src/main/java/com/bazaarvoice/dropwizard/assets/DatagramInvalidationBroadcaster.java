@@ -0,0 +1,125 @@
+package com.bazaarvoice.dropwizard.assets;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * An invalidation broadcaster that sends each invalidated path to a fixed list of peers as a UDP datagram, and listens
+ * for the invalidations of its peers on a local port.  Delivery is best-effort: a lost datagram leaves a peer serving
+ * its cached copy until the asset is invalidated again or evicted.  Only datagrams sent from the address of a peer are
+ * acted on, so each peer must send from the address it is listed at, which is the address it listens on.  Peers on the
+ * loopback interface make this suitable for simulating a fleet in tests.
+ */
+public class DatagramInvalidationBroadcaster implements InvalidationBroadcaster, Managed {
+    private static final Logger LOG = LoggerFactory.getLogger(DatagramInvalidationBroadcaster.class);
+    private static final int MAXIMUM_PATH_BYTES = 8192;
+
+    private final InetSocketAddress address;
+    private final Set<InetSocketAddress> peers;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private volatile DatagramSocket socket;
+
+    /**
+     * @param address the address to listen for invalidations on
+     * @param peers   the addresses of the peers to send invalidations to
+     */
+    public DatagramInvalidationBroadcaster(InetSocketAddress address, Iterable<InetSocketAddress> peers) {
+        this.address = address;
+        this.peers = ImmutableSet.copyOf(peers);
+    }
+
+    /** The address the broadcaster is listening on, or null if it hasn't been started. */
+    public InetSocketAddress getLocalAddress() {
+        DatagramSocket current = socket;
+        return (current != null) ? (InetSocketAddress) current.getLocalSocketAddress() : null;
+    }
+
+    @Override
+    public void start() throws SocketException {
+        final DatagramSocket listening = new DatagramSocket(address);
+        socket = listening;
+
+        Thread receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receive(listening);
+            }
+        }, "asset-invalidation-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    @Override
+    public void stop() {
+        DatagramSocket current = socket;
+        socket = null;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    @Override
+    public void broadcast(String path) throws IOException {
+        DatagramSocket current = socket;
+        if (current == null) {
+            throw new IllegalStateException("Broadcaster has not been started");
+        }
+
+        // One unreachable peer mustn't keep the invalidation from the others
+        byte[] payload = path.getBytes(Charsets.UTF_8);
+        for (InetSocketAddress peer : peers) {
+            try {
+                current.send(new DatagramPacket(payload, payload.length, peer));
+            } catch (IOException e) {
+                LOG.warn("Unable to send asset invalidation of {} to {}", path, peer, e);
+            }
+        }
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    private void receive(DatagramSocket listening) {
+        byte[] buffer = new byte[MAXIMUM_PATH_BYTES];
+        while (!listening.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                listening.receive(packet);
+            } catch (IOException e) {
+                if (!listening.isClosed()) {
+                    LOG.warn("Unable to receive asset invalidation", e);
+                }
+                continue;
+            }
+
+            if (!peers.contains(packet.getSocketAddress())) {
+                LOG.warn("Ignoring asset invalidation from {}, which is not a peer", packet.getSocketAddress());
+                continue;
+            }
+
+            // A failing listener mustn't stop this thread, or invalidations would stop for the life of the process
+            String path = new String(packet.getData(), packet.getOffset(), packet.getLength(), Charsets.UTF_8);
+            for (Listener listener : listeners) {
+                try {
+                    listener.invalidated(path);
+                } catch (RuntimeException e) {
+                    LOG.warn("Unable to invalidate asset {}", path, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.bazaarvoice.dropwizard.assets;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A count-min sketch that estimates how often each key has been requested recently.  Every key is mapped to one
+ * 4-bit counter in each of four rows, and its estimated frequency is the smallest of those counters.  Once the number
+ * of increments reaches the sample size, all counters are halved so that the sketch follows recent popularity instead
+ * of all-time popularity.  This is the frequency filter described by TinyLFU and costs half a byte per counter.
+ * <p/>
+ * The sketch is recorded into on every request, so it takes no locks: counters are updated with compare-and-set, and
+ * a reset that races with an increment may lose that increment, which only makes the estimate slightly less exact.
+ */
+final class FrequencySketch {
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final AtomicLongArray table;
+    private final int counterMask;
+    private final int sampleSize;
+    private final AtomicInteger additions = new AtomicInteger();
+    private final AtomicInteger resets = new AtomicInteger();
+
+    /**
+     * @param expectedKeys the number of distinct keys expected to be live at once; used to size the sketch
+     */
+    FrequencySketch(int expectedKeys) {
+        int rows = Integer.highestOneBit(Math.max(expectedKeys, 16) - 1) << 1;
+        this.table = new AtomicLongArray(rows);
+        this.counterMask = (rows * 16) - 1;
+        this.sampleSize = 10 * rows;
+    }
+
+    /** Records one request for {@code key}. */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            added |= incrementAt(indexOf(hash, i));
+        }
+
+        // Only the increment that reaches the sample size resets the sketch, so resets don't pile up under contention
+        if (added && additions.incrementAndGet() == sampleSize) {
+            reset();
+            additions.addAndGet(-(sampleSize >>> 1));
+            resets.incrementAndGet();
+        }
+    }
+
+    /** Returns the number of times the counters have been halved so far. */
+    int resets() {
+        return resets.get();
+    }
+
+    /** Returns the estimated number of recent requests for {@code key}, between 0 and 15. */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table.get(index >>> 4) >>> ((index & 15) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    private boolean incrementAt(int index) {
+        int slot = index >>> 4;
+        int shift = (index & 15) << 2;
+        while (true) {
+            long word = table.get(slot);
+            if (((word >>> shift) & 0xfL) == MAX_COUNT) {
+                return false;
+            }
+            if (table.compareAndSet(slot, word, word + (1L << shift))) {
+                return true;
+            }
+        }
+    }
+
+    /** Halves every counter so that old requests gradually stop counting towards an entry's frequency. */
+    private void reset() {
+        for (int i = 0; i < table.length(); i++) {
+            long word;
+            do {
+                word = table.get(i);
+            } while (!table.compareAndSet(i, word, (word >>> 1) & RESET_MASK));
+        }
+    }
+
+    private int indexOf(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return (int) h & counterMask;
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+}
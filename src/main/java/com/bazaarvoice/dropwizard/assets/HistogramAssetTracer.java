@@ -0,0 +1,35 @@
+package com.bazaarvoice.dropwizard.assets;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * A tracer that records the time spent in each phase of serving an asset, and in the request as a whole, in histograms
+ * of microseconds.  A phase is only recorded for the requests that entered it, so that the many hits that never load
+ * anything don't bury the time taken by the loads under zeros.
+ */
+public class HistogramAssetTracer implements AssetTracer {
+    private final Histogram total;
+    private final Histogram[] phases = new Histogram[AssetTrace.Phase.values().length];
+
+    /**
+     * @param registry the registry to create the histograms in
+     * @param prefix   the prefix of the histograms' names
+     */
+    public HistogramAssetTracer(MetricRegistry registry, String prefix) {
+        this.total = registry.histogram(MetricRegistry.name(prefix, "total"));
+        for (AssetTrace.Phase phase : AssetTrace.Phase.values()) {
+            phases[phase.ordinal()] = registry.histogram(MetricRegistry.name(prefix, phase.name().toLowerCase()));
+        }
+    }
+
+    @Override
+    public void traced(AssetTrace trace) {
+        total.update(trace.getTotalNanos() / 1000);
+        for (AssetTrace.Phase phase : AssetTrace.Phase.values()) {
+            if (trace.isEntered(phase)) {
+                phases[phase.ordinal()].update(trace.getNanos(phase) / 1000);
+            }
+        }
+    }
+}
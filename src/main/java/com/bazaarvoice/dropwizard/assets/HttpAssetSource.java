@@ -0,0 +1,217 @@
+package com.bazaarvoice.dropwizard.assets;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.google.common.net.HttpHeaders;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An asset source that fetches files from a remote HTTP origin.  Files are looked up with {@code HEAD} requests whose
+ * validators are remembered for a short time, and are then revalidated with the origin using their ETag.  Only one
+ * caller revalidates a path at a time; the others carry on with the last known validators rather than waiting on the
+ * origin, and those validators also continue to be used if the origin can't be reached.  Contents are streamed from the origin on
+ * every {@link #open}, since the servlet caches whatever it reads; only the small validators are kept here.  HTTP has
+ * no notion of a directory, so the only directory in this source is its root.
+ */
+public class HttpAssetSource implements AssetSource {
+    private static final long DEFAULT_MAX_AGE_MILLIS = 5000;
+    private static final int TIMEOUT_MILLIS = 10000;
+    private static final int MAXIMUM_PATHS = 10000;
+
+    private final URI base;
+    private final long maxAgeMillis;
+    private final Cache<String, Validators> validators = CacheBuilder.newBuilder().maximumSize(MAXIMUM_PATHS).build();
+    private final ConcurrentMap<String, Boolean> revalidating = Maps.newConcurrentMap();
+
+    public HttpAssetSource(URI base) {
+        this(base, DEFAULT_MAX_AGE_MILLIS);
+    }
+
+    /**
+     * @param base         the URL that paths are relative to
+     * @param maxAgeMillis how long the result of looking up a file is used before it is revalidated with the origin
+     */
+    public HttpAssetSource(URI base, long maxAgeMillis) {
+        this.base = base.toString().endsWith("/") ? base : URI.create(base.toString() + '/');
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    @Override
+    public Map<String, AssetStat> stat(Collection<String> paths) throws IOException {
+        Map<String, AssetStat> stats = Maps.newHashMap();
+        for (String path : paths) {
+            if (path.isEmpty()) {
+                stats.put(path, new AssetStat(true, -1, 0));
+                continue;
+            }
+
+            Validators file = validate(path);
+            if (file.exists) {
+                stats.put(path, new AssetStat(false, file.length, file.lastModifiedTime));
+            }
+        }
+        return stats;
+    }
+
+    @Override
+    public InputStream open(String path, long offset, long length) throws IOException {
+        URL url = path.isEmpty() ? null : resolve(path);
+        if (url == null) {
+            throw new FileNotFoundException(path);
+        }
+
+        HttpURLConnection connection = connect(url, "GET");
+        boolean ranged = offset > 0 || length >= 0;
+        if (ranged) {
+            connection.setRequestProperty(HttpHeaders.RANGE,
+                    "bytes=" + offset + '-' + ((length >= 0) ? Long.toString(offset + length - 1) : ""));
+        }
+
+        int status = connection.getResponseCode();
+        if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE) {
+            connection.disconnect();
+            throw new FileNotFoundException(path);
+        }
+        if (status == HttpURLConnection.HTTP_PARTIAL && ranged) {
+            return AssetSources.slice(connection.getInputStream(), 0, length);
+        }
+        if (status != HttpURLConnection.HTTP_OK) {
+            connection.disconnect();
+            throw new IOException("Unexpected status " + status + " from " + url);
+        }
+
+        // The origin ignored the range, so skip to it ourselves
+        return AssetSources.slice(connection.getInputStream(), offset, length);
+    }
+
+    private Validators validate(String path) throws IOException {
+        long now = System.currentTimeMillis();
+        Validators cached = validators.getIfPresent(path);
+        if (cached != null && now - cached.fetchedTime < maxAgeMillis) {
+            return cached;
+        }
+
+        // An unknown path has nothing to fall back on, so every caller has to ask the origin about it
+        if (cached != null && revalidating.putIfAbsent(path, Boolean.TRUE) != null) {
+            return cached;
+        }
+
+        Validators fresh;
+        try {
+            fresh = head(path, cached, now);
+        } catch (IOException e) {
+            if (cached == null) {
+                throw e;
+            }
+            fresh = cached.refetched(now);
+        } finally {
+            if (cached != null) {
+                revalidating.remove(path);
+            }
+        }
+
+        validators.put(path, fresh);
+        return fresh;
+    }
+
+    private Validators head(String path, Validators cached, long now) throws IOException {
+        URL url = resolve(path);
+        if (url == null) {
+            return Validators.missing(now);
+        }
+
+        HttpURLConnection connection = connect(url, "HEAD");
+        if (cached != null && cached.eTag != null) {
+            connection.setRequestProperty(HttpHeaders.IF_NONE_MATCH, cached.eTag);
+        }
+
+        try {
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                return cached.refetched(now);
+            }
+            if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE) {
+                return Validators.missing(now);
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected status " + status + " from " + url);
+            }
+
+            String eTag = connection.getHeaderField(HttpHeaders.ETAG);
+            long length = connection.getContentLengthLong();
+
+            // Without a Last-Modified header, the file is considered modified whenever its ETag or length changes
+            long lastModifiedTime = connection.getLastModified();
+            if (lastModifiedTime == 0) {
+                lastModifiedTime = (cached != null && cached.exists && Objects.equal(cached.eTag, eTag)
+                        && cached.length == length)
+                        ? cached.lastModifiedTime
+                        : now;
+            }
+            return new Validators(true, eTag, length, lastModifiedTime, now);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static HttpURLConnection connect(URL url, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        return connection;
+    }
+
+    /** Resolves {@code path} against the base, or returns null if it would point outside of the base. */
+    private URL resolve(String path) throws IOException {
+        if (AssetSources.isTraversal(path)) {
+            return null;
+        }
+
+        URI uri;
+        try {
+            // Let URI escape the path, and keep a leading segment like "file:" from being parsed as a scheme
+            uri = base.resolve("./" + new URI(null, null, path, null).getRawPath());
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid path: " + path, e);
+        }
+        return uri.toString().startsWith(base.toString()) ? uri.toURL() : null;
+    }
+
+    /** What the origin last said about a file, without its contents. */
+    private static final class Validators {
+        private final boolean exists;
+        private final String eTag;
+        private final long length;
+        private final long lastModifiedTime;
+        private final long fetchedTime;
+
+        private Validators(boolean exists, String eTag, long length, long lastModifiedTime, long fetchedTime) {
+            this.exists = exists;
+            this.eTag = eTag;
+            this.length = length;
+            this.lastModifiedTime = lastModifiedTime;
+            this.fetchedTime = fetchedTime;
+        }
+
+        private static Validators missing(long now) {
+            return new Validators(false, null, -1, 0, now);
+        }
+
+        private Validators refetched(long now) {
+            return new Validators(exists, eTag, length, lastModifiedTime, now);
+        }
+    }
+}
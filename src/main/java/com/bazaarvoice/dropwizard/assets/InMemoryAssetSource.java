@@ -0,0 +1,98 @@
+package com.bazaarvoice.dropwizard.assets;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.Maps;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An asset source that holds its files in memory.  Directories exist implicitly for every parent of a file.  Files may
+ * be added and removed at any time; assets served from this source pick up the change on their next request.
+ */
+public class InMemoryAssetSource implements AssetSource {
+    private final ConcurrentMap<String, Content> files = Maps.newConcurrentMap();
+    private final AtomicLong clock = new AtomicLong();
+
+    /** Adds or replaces the file at {@code path}. */
+    public void put(String path, byte[] content) {
+        files.put(normalize(path), new Content(Arrays.copyOf(content, content.length), tick()));
+    }
+
+    /** Removes the file at {@code path}, if there is one. */
+    public void remove(String path) {
+        files.remove(normalize(path));
+    }
+
+    @Override
+    public Map<String, AssetStat> stat(Collection<String> paths) {
+        Map<String, AssetStat> stats = Maps.newHashMap();
+        for (String path : paths) {
+            Content content = files.get(path);
+            if (content != null) {
+                stats.put(path, new AssetStat(false, content.bytes.length, content.lastModifiedTime));
+            } else if (isDirectory(path)) {
+                stats.put(path, new AssetStat(true, -1, 0));
+            }
+        }
+        return stats;
+    }
+
+    @Override
+    public InputStream open(String path, long offset, long length) throws IOException {
+        Content content = files.get(path);
+        if (content == null) {
+            throw new FileNotFoundException(path);
+        }
+
+        int start = (int) Math.min(offset, content.bytes.length);
+        int end = (length < 0) ? content.bytes.length : (int) Math.min(start + length, content.bytes.length);
+        return new ByteArrayInputStream(content.bytes, start, end - start);
+    }
+
+    /** The current time, bumped if necessary so that two changes never share a modification time. */
+    private long tick() {
+        while (true) {
+            long last = clock.get();
+            long next = Math.max(System.currentTimeMillis(), last + 1);
+            if (clock.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
+
+    private boolean isDirectory(String path) {
+        if (path.isEmpty()) {
+            return true;
+        }
+
+        String prefix = path + '/';
+        for (String file : files.keySet()) {
+            if (file.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String normalize(String path) {
+        return CharMatcher.is('/').trimFrom(path);
+    }
+
+    private static final class Content {
+        private final byte[] bytes;
+        private final long lastModifiedTime;
+
+        private Content(byte[] bytes, long lastModifiedTime) {
+            this.bytes = bytes;
+            this.lastModifiedTime = lastModifiedTime;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.bazaarvoice.dropwizard.assets;
+
+import java.io.IOException;
+
+/**
+ * Carries asset invalidations between the nodes of a fleet.  When an asset is invalidated on one node, the node
+ * broadcasts its path so that every peer evicts its own copy as well.  Implementations must be thread-safe.
+ */
+public interface InvalidationBroadcaster {
+    /** Tells the peers of this node that the asset served at {@code path} has changed. */
+    void broadcast(String path) throws IOException;
+
+    /** Registers a listener to be told about invalidations broadcast by peers. */
+    void addListener(Listener listener);
+
+    /** Receives invalidations broadcast by peers. */
+    interface Listener {
+        void invalidated(String path);
+    }
+}
@@ -0,0 +1,68 @@
+package com.bazaarvoice.dropwizard.assets;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.Maps;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * The entries of a jar beneath a root directory, read with a single scan of its central directory.  Directories are
+ * recorded whether or not the jar contains an explicit entry for them, so that looking up a path never needs to open a
+ * {@link java.net.JarURLConnection} or guess whether it names a directory.  Entries outside of the root, such as the
+ * classes of a shaded application jar, are skipped so that they don't stay in memory for the life of the process.
+ */
+final class JarIndex {
+    private final Map<String, AssetStat> entries;
+
+    private JarIndex(Map<String, AssetStat> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Reads the entries of {@code jar} beneath {@code root}.
+     *
+     * @param jar  the jar to scan
+     * @param root the name of the directory to index, without leading or trailing slashes; empty to index everything
+     */
+    static JarIndex scan(File jar, String root) throws IOException {
+        Map<String, AssetStat> entries = Maps.newHashMap();
+        String prefix = root.isEmpty() ? "" : root + '/';
+        JarFile jarFile = new JarFile(jar);
+        try {
+            Enumeration<JarEntry> jarEntries = jarFile.entries();
+            while (jarEntries.hasMoreElements()) {
+                JarEntry entry = jarEntries.nextElement();
+                String name = CharMatcher.is('/').trimTrailingFrom(entry.getName());
+                if (!name.startsWith(prefix) && !name.equals(root)) {
+                    continue;
+                }
+                entries.put(name, new AssetStat(entry.isDirectory(), entry.isDirectory() ? -1 : entry.getSize(),
+                        entry.getTime()));
+
+                // Make sure every parent up to the root is known to be a directory, even if the jar has no entry for it
+                int slash = name.lastIndexOf('/');
+                while (slash >= root.length() && slash > 0) {
+                    String parent = name.substring(0, slash);
+                    if (entries.containsKey(parent)) {
+                        break;
+                    }
+                    entries.put(parent, new AssetStat(true, -1, 0));
+                    slash = parent.lastIndexOf('/');
+                }
+            }
+        } finally {
+            jarFile.close();
+        }
+        return new JarIndex(entries);
+    }
+
+    /** The metadata of the entry named {@code name}, or null if there is no such entry. */
+    AssetStat stat(String name) {
+        return entries.get(CharMatcher.is('/').trimTrailingFrom(name));
+    }
+}
@@ -0,0 +1,25 @@
+package com.bazaarvoice.dropwizard.assets;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * An invalidation broadcaster for nodes in the same JVM, such as several servlets serving the same assets or nodes
+ * simulated by a test.  Every listener registered with the broadcaster, including the sender's own, is told about
+ * each invalidation.
+ */
+public class LocalInvalidationBroadcaster implements InvalidationBroadcaster {
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    @Override
+    public void broadcast(String path) {
+        for (Listener listener : listeners) {
+            listener.invalidated(path);
+        }
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+}
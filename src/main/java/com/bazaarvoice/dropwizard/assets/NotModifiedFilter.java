@@ -0,0 +1,68 @@
+package com.bazaarvoice.dropwizard.assets;
+
+import com.google.common.collect.Maps;
+import com.google.common.net.HttpHeaders;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Filter that answers conditional revalidations of unchanging assets before they reach the {@link AssetServlet}.  The
+ * servlet records the current ETag of every asset it serves whose contents can never change; a later {@code GET} or
+ * {@code HEAD} whose {@code If-None-Match} header equals that ETag is answered with a {@code 304} straight from this
+ * index, without a cache lookup or any access to the asset itself.  Every other request passes through untouched.
+ */
+class NotModifiedFilter implements Filter {
+    /** Bound on the number of paths remembered, so that requests for many aliases of a path can't grow it forever. */
+    private static final int MAXIMUM_ENTRIES = 10000;
+
+    private final ConcurrentMap<String, String> eTags = Maps.newConcurrentMap();
+
+    /** Remembers that {@code path} is currently served with {@code eTag}. */
+    void record(String path, String eTag) {
+        if (eTags.size() < MAXIMUM_ENTRIES || eTags.containsKey(path)) {
+            eTags.put(path, eTag);
+        }
+    }
+
+    /** Forgets the ETag of {@code path}, so that requests for it go back through the servlet. */
+    void forget(String path) {
+        eTags.remove(path);
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (request instanceof HttpServletRequest && response instanceof HttpServletResponse) {
+            HttpServletRequest req = (HttpServletRequest) request;
+            String ifNoneMatch = req.getHeader(HttpHeaders.IF_NONE_MATCH);
+            if (ifNoneMatch != null && ("GET".equals(req.getMethod()) || "HEAD".equals(req.getMethod()))) {
+                String eTag = eTags.get(AssetServlet.requestPath(req));
+                if (ifNoneMatch.equals(eTag)) {
+                    HttpServletResponse resp = (HttpServletResponse) response;
+                    resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    resp.setHeader(HttpHeaders.ETAG, eTag);
+                    return;
+                }
+            }
+        }
+
+        chain.doFilter(request, response);
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
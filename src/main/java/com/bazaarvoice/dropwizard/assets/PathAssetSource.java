@@ -0,0 +1,71 @@
+package com.bazaarvoice.dropwizard.assets;
+
+import com.google.common.collect.Maps;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * An asset source that reads files beneath a directory of a {@link java.nio.file.FileSystem}.  The root may also be a
+ * single file, in which case it is served for the empty path.  Paths that would resolve outside of the root don't
+ * exist.
+ */
+public class PathAssetSource implements AssetSource {
+    private final Path root;
+
+    public PathAssetSource(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    @Override
+    public Map<String, AssetStat> stat(Collection<String> paths) throws IOException {
+        Map<String, AssetStat> stats = Maps.newHashMap();
+        for (String path : paths) {
+            Path file = resolve(path);
+            if (file == null) {
+                continue;
+            }
+
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (IOException e) {
+                // Doesn't exist or can't be read, either way there's nothing to serve
+                continue;
+            }
+            stats.put(path, new AssetStat(attributes.isDirectory(), attributes.size(),
+                    attributes.lastModifiedTime().toMillis()));
+        }
+        return stats;
+    }
+
+    @Override
+    public InputStream open(String path, long offset, long length) throws IOException {
+        Path file = resolve(path);
+        if (file == null || Files.isDirectory(file)) {
+            throw new FileNotFoundException(path);
+        }
+
+        SeekableByteChannel channel = Files.newByteChannel(file);
+        try {
+            channel.position(offset);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return AssetSources.slice(Channels.newInputStream(channel), 0, length);
+    }
+
+    private Path resolve(String path) {
+        Path file = root.resolve(path).normalize();
+        return file.startsWith(root) ? file : null;
+    }
+}
@@ -0,0 +1,109 @@
+package com.bazaarvoice.dropwizard.assets;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Sets;
+import com.google.common.net.MediaType;
+
+import java.net.URI;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Derives {@code Link: rel=preload} header values from the scripts and stylesheets an HTML asset references, so that a
+ * browser can start fetching them before it has parsed the page.  Only references to the same origin are preloaded.
+ */
+final class PreloadLinks {
+    private static final Pattern TAG = Pattern.compile("<(script|link|base)\\b([^>]*)>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ATTRIBUTE = Pattern.compile(
+            "\\b([a-z-]+)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s\"'>]+))", Pattern.CASE_INSENSITIVE);
+    private static final Pattern STYLESHEET = Pattern.compile("(^|\\s)stylesheet(\\s|$)", Pattern.CASE_INSENSITIVE);
+
+    private PreloadLinks() {
+    }
+
+    /**
+     * Whether an asset served as {@code mediaType} is an HTML page worth scanning.  The served type is used rather than
+     * the name of the file, which an override of a single file doesn't have.
+     */
+    static boolean isHtml(MediaType mediaType) {
+        return mediaType.is(MediaType.ANY_TEXT_TYPE) && "html".equals(mediaType.subtype());
+    }
+
+    /**
+     * Scans an HTML page for the scripts and stylesheets it references.
+     *
+     * @param html    the contents of the page, assumed to be UTF-8
+     * @param pageUri the URI path the page is served at, which relative references are resolved against
+     * @return the value of the {@code Link} header listing the references, or null if there are none
+     */
+    static String forHtml(byte[] html, String pageUri) {
+        URI base;
+        try {
+            base = URI.create(pageUri);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        Set<String> links = Sets.newLinkedHashSet();
+        Matcher tags = TAG.matcher(new String(html, Charsets.UTF_8));
+        while (tags.find()) {
+            String tag = tags.group(1).toLowerCase();
+            String attributes = tags.group(2);
+
+            if ("base".equals(tag)) {
+                // Later references are relative to the page's base URL
+                URI href = resolve(base, attribute(attributes, "href"));
+                if (href != null) {
+                    base = href;
+                }
+            } else if ("script".equals(tag)) {
+                addLink(links, resolve(base, attribute(attributes, "src")), "script");
+            } else {
+                String rel = attribute(attributes, "rel");
+                if (rel != null && STYLESHEET.matcher(rel).find()) {
+                    addLink(links, resolve(base, attribute(attributes, "href")), "style");
+                }
+            }
+        }
+
+        return links.isEmpty() ? null : Joiner.on(", ").join(links);
+    }
+
+    private static void addLink(Set<String> links, URI target, String as) {
+        if (target != null) {
+            links.add('<' + target.toString() + ">; rel=preload; as=" + as);
+        }
+    }
+
+    /** Resolves a same-origin reference against {@code base}, or returns null for anything else. */
+    private static URI resolve(URI base, String reference) {
+        if (reference == null || reference.isEmpty()) {
+            return null;
+        }
+
+        URI target;
+        try {
+            target = base.resolve(reference.trim());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return (target.getScheme() == null && target.getAuthority() == null && target.getRawPath() != null
+                && target.getRawPath().startsWith("/")) ? target : null;
+    }
+
+    private static String attribute(String attributes, String name) {
+        Matcher matcher = ATTRIBUTE.matcher(attributes);
+        while (matcher.find()) {
+            if (name.equalsIgnoreCase(matcher.group(1))) {
+                for (int group = 2; group <= 4; group++) {
+                    if (matcher.group(group) != null) {
+                        return matcher.group(group);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,37 @@
+package com.bazaarvoice.dropwizard.assets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A tracer that logs the phase breakdown of requests that take longer than a threshold.  Only a sample of the slow
+ * requests is logged, so that a burst of them can't flood the log.
+ */
+public class SlowRequestLogTracer implements AssetTracer {
+    private static final Logger LOG = LoggerFactory.getLogger(SlowRequestLogTracer.class);
+
+    private final long thresholdNanos;
+    private final double sampleRate;
+
+    /**
+     * @param thresholdMillis the duration above which a request is considered slow
+     * @param sampleRate      the fraction of slow requests to log, between 0 and 1
+     */
+    public SlowRequestLogTracer(long thresholdMillis, double sampleRate) {
+        checkArgument(sampleRate >= 0 && sampleRate <= 1, "sampleRate must be between 0 and 1: %s", sampleRate);
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.sampleRate = sampleRate;
+    }
+
+    @Override
+    public void traced(AssetTrace trace) {
+        if (trace.getTotalNanos() >= thresholdNanos && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            LOG.warn("Slow asset request {}", trace);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.bazaarvoice.dropwizard.assets;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.Weigher;
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class AdaptiveLoadingCacheTest {
+    private static final CacheLoader<String, String> LOADER = new CacheLoader<String, String>() {
+        @Override
+        public String load(String key) {
+            return key.startsWith("missing") ? null : key;
+        }
+    };
+
+    private static final int MEGABYTE = 1024 * 1024;
+    private static final int LARGE_VALUE_LENGTH = 300 * 1024;
+
+    /** Loads single character keys as values of 300 KB. */
+    private static final CacheLoader<String, String> LARGE_LOADER = new CacheLoader<String, String>() {
+        @Override
+        public String load(String key) {
+            return Strings.repeat(key, LARGE_VALUE_LENGTH);
+        }
+    };
+
+    private static final Weigher<String, String> LENGTH_WEIGHER = new Weigher<String, String>() {
+        @Override
+        public int weigh(String key, String value) {
+            return value.length();
+        }
+    };
+
+    @Test
+    public void admitsEverythingWhileBelowTheCeiling() throws Exception {
+        AdaptiveLoadingCache<String, String> cache = new AdaptiveLoadingCache<String, String>(
+                LOADER, LENGTH_WEIGHER, 100, 16);
+
+        assertThat(cache.get("aaaa")).isEqualTo("aaaa");
+        assertThat(cache.get("bbbb")).isEqualTo("bbbb");
+
+        assertThat(cache.getIfPresent("aaaa")).isEqualTo("aaaa");
+        assertThat(cache.getIfPresent("bbbb")).isEqualTo("bbbb");
+        assertThat(cache.weightedSize()).isEqualTo(8);
+    }
+
+    @Test
+    public void neverAdmitsValuesLargerThanTheCeiling() throws Exception {
+        AdaptiveLoadingCache<String, String> cache = new AdaptiveLoadingCache<String, String>(
+                LOADER, LENGTH_WEIGHER, 4, 16);
+
+        assertThat(cache.get("aaaaaaaa")).isEqualTo("aaaaaaaa");
+        assertThat(cache.getIfPresent("aaaaaaaa")).isNull();
+        assertThat(cache.weightedSize()).isEqualTo(0);
+    }
+
+    @Test
+    public void rejectsRarelyRequestedValuesOnceFull() throws Exception {
+        AdaptiveLoadingCache<String, String> cache = new AdaptiveLoadingCache<String, String>(
+                LOADER, LENGTH_WEIGHER, 4, 16);
+
+        for (int i = 0; i < 5; i++) {
+            cache.get("hot1");
+        }
+
+        // A single request for a new key is not enough to displace a popular one
+        assertThat(cache.get("cold")).isEqualTo("cold");
+        assertThat(cache.getIfPresent("cold")).isNull();
+        assertThat(cache.getIfPresent("hot1")).isEqualTo("hot1");
+    }
+
+    @Test
+    public void retainsLargeValuesUpToTheCeiling() throws Exception {
+        AdaptiveLoadingCache<String, String> cache = new AdaptiveLoadingCache<String, String>(
+                LARGE_LOADER, LENGTH_WEIGHER, MEGABYTE, 16);
+
+        // Three values of 300 KB fit within 1 MB, even though each is more than a quarter of it
+        cache.get("a");
+        cache.get("b");
+        cache.get("c");
+
+        assertThat(cache.getIfPresent("a")).isNotNull();
+        assertThat(cache.getIfPresent("b")).isNotNull();
+        assertThat(cache.getIfPresent("c")).isNotNull();
+        assertThat(cache.size()).isEqualTo(3);
+        assertThat(cache.weightedSize()).isEqualTo(3 * LARGE_VALUE_LENGTH);
+    }
+
+    @Test
+    public void evictsOnlyLessPopularValuesOnceFull() throws Exception {
+        AdaptiveLoadingCache<String, String> cache = new AdaptiveLoadingCache<String, String>(
+                LARGE_LOADER, LENGTH_WEIGHER, MEGABYTE, 16);
+
+        for (int i = 0; i < 5; i++) {
+            cache.get("a");
+            cache.get("b");
+        }
+        cache.get("c");
+
+        // A new value is rejected until it has been requested more often than the least popular resident
+        cache.get("d");
+        assertThat(cache.getIfPresent("d")).isNull();
+        assertThat(cache.size()).isEqualTo(3);
+
+        cache.get("d");
+        cache.get("d");
+        assertThat(cache.getIfPresent("d")).isNotNull();
+        assertThat(cache.getIfPresent("c")).isNull();
+        assertThat(cache.getIfPresent("a")).isNotNull();
+        assertThat(cache.getIfPresent("b")).isNotNull();
+        assertThat(cache.weightedSize()).isEqualTo(3 * LARGE_VALUE_LENGTH);
+    }
+
+    @Test
+    public void admitsPopularLargeValuesOverManySmallOnes() throws Exception {
+        AdaptiveLoadingCache<String, String> cache = new AdaptiveLoadingCache<String, String>(
+                new CacheLoader<String, String>() {
+                    @Override
+                    public String load(String key) {
+                        return key.equals("large") ? Strings.repeat("l", LARGE_VALUE_LENGTH) : Strings.repeat(key, 64);
+                    }
+                }, LENGTH_WEIGHER, MEGABYTE, 1024);
+
+        // Fill the cache with small values of 8 KB that are each requested once
+        for (int i = 0; cache.weightedSize() + 8192 <= MEGABYTE; i++) {
+            cache.get(String.format("small%03d", i));
+        }
+        long smallValues = cache.size();
+
+        // The large value has to displace dozens of them, which it does once it is more popular than they are
+        for (int i = 0; i < 3; i++) {
+            cache.get("large");
+        }
+        assertThat(cache.getIfPresent("large")).isNotNull();
+        assertThat(cache.size()).isLessThan(smallValues);
+        assertThat(cache.weightedSize()).isLessThanOrEqualTo(MEGABYTE);
+    }
+
+    @Test
+    public void releasesValuesThatAreNoLongerRequested() throws Exception {
+        AdaptiveLoadingCache<String, String> cache = new AdaptiveLoadingCache<String, String>(
+                LOADER, LENGTH_WEIGHER, 100, 16);
+
+        cache.get("cold");
+        cache.get("hot1");
+
+        // Requests for many other keys, too large to be cached, age the sketch until the cold value is forgotten
+        for (int i = 0; i < 1000; i++) {
+            cache.get("hot1");
+            cache.get(Strings.padEnd("other" + i, 101, '.'));
+        }
+        assertThat(cache.getIfPresent("cold")).isNull();
+        assertThat(cache.getIfPresent("hot1")).isEqualTo("hot1");
+        assertThat(cache.weightedSize()).isEqualTo(4);
+    }
+
+    @Test
+    public void tracksWeightThroughInvalidation() throws Exception {
+        AdaptiveLoadingCache<String, String> cache = new AdaptiveLoadingCache<String, String>(
+                LOADER, LENGTH_WEIGHER, 100, 16);
+
+        cache.get("aaaa");
+        cache.invalidate("aaaa");
+
+        assertThat(cache.getIfPresent("aaaa")).isNull();
+        assertThat(cache.weightedSize()).isEqualTo(0);
+    }
+
+    @Test(expected = CacheLoader.InvalidCacheLoadException.class)
+    public void failsWhenTheLoaderFindsNothing() throws Exception {
+        AdaptiveLoadingCache<String, String> cache = new AdaptiveLoadingCache<String, String>(
+                LOADER, LENGTH_WEIGHER, 100, 16);
+
+        cache.getUnchecked("missing");
+    }
+}
@@ -0,0 +1,395 @@
+package com.bazaarvoice.dropwizard.assets;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.common.net.HttpHeaders;
+import com.google.common.primitives.Longs;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.setup.Environment;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.validation.Validation;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Replays a realistic mix of asset traffic against a {@link ConfiguredAssetsBundle} running in an embedded Jetty, and
+ * reports latency percentiles, throughput, garbage collection, allocation and the bundle's own phase timings.  Paths
+ * are requested with a Zipf distribution over small classpath, configured source and in-memory assets, large override
+ * files and misses; a share of the requests revalidate an ETag the client has already seen.
+ * <p/>
+ * The harness is skipped unless the {@code assets.loadtest} system property is set.  Run it locally with:
+ * <pre>
+ * mvn test -Dtest=AssetServletLoadTest -Dassets.loadtest=true [-Dassets.loadtest.clients=32] ...
+ * </pre>
+ * See the {@code PROPERTY_PREFIX} properties below for the other knobs.
+ */
+public class AssetServletLoadTest {
+    private static final String PROPERTY_PREFIX = "assets.loadtest.";
+    private static final String URI_PATH = "/assets/";
+    private static final String SERVER_THREAD_NAME = "load-server";
+
+    private static final int CLIENTS = Integer.getInteger(PROPERTY_PREFIX + "clients", 32);
+    private static final int WARMUP_SECONDS = Integer.getInteger(PROPERTY_PREFIX + "warmupSeconds", 5);
+    private static final int DURATION_SECONDS = Integer.getInteger(PROPERTY_PREFIX + "durationSeconds", 30);
+    private static final double ZIPF_EXPONENT = Double.parseDouble(System.getProperty(PROPERTY_PREFIX + "zipf", "1.0"));
+    private static final double CONDITIONAL_RATIO =
+            Double.parseDouble(System.getProperty(PROPERTY_PREFIX + "conditionalRatio", "0.6"));
+    private static final double MISS_RATIO = Double.parseDouble(System.getProperty(PROPERTY_PREFIX + "missRatio", "0.05"));
+    private static final int GENERATED_ASSETS = Integer.getInteger(PROPERTY_PREFIX + "generatedAssets", 500);
+    private static final int LARGE_ASSETS = Integer.getInteger(PROPERTY_PREFIX + "largeAssets", 8);
+    private static final int LARGE_ASSET_BYTES = Integer.getInteger(PROPERTY_PREFIX + "largeAssetBytes", 2 << 20);
+    private static final Long ADAPTIVE_CACHE_BYTES = Long.getLong(PROPERTY_PREFIX + "adaptiveCacheBytes");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Random random = new Random(42);
+    private final ConcurrentMap<String, String> eTags = Maps.newConcurrentMap();
+    private final MetricRegistry metrics = new MetricRegistry();
+    private Server server;
+    private String baseUrl;
+    private List<String> paths;
+
+    @Before
+    public void setup() throws Exception {
+        assumeTrue(Boolean.getBoolean("assets.loadtest"));
+
+        File large = folder.newFolder("large");
+        for (int i = 0; i < LARGE_ASSETS; i++) {
+            byte[] content = new byte[LARGE_ASSET_BYTES];
+            random.nextBytes(content);
+            Files.write(content, new File(large, "large-" + i + ".bin"));
+        }
+
+        InMemoryAssetSource generated = new InMemoryAssetSource();
+        for (int i = 0; i < GENERATED_ASSETS; i++) {
+            byte[] content = new byte[1024 + random.nextInt(32 * 1024)];
+            Arrays.fill(content, (byte) ('a' + i % 26));
+            generated.put("generated-" + i + ".js", content);
+        }
+
+        // Configure the bundle the way an application would, so that its wiring is part of what is measured
+        Map<String, Object> assets = Maps.newHashMap();
+        assets.put("overrides", ImmutableMap.of(URI_PATH + "large", large.getAbsolutePath()));
+        assets.put("sources", ImmutableMap.of(URI_PATH + "vendor", "classpath:/assets/some_directory/"));
+        assets.put("adaptiveCacheMaximumBytes", ADAPTIVE_CACHE_BYTES);
+        assets.put("traceHistograms", true);
+        final AssetsConfiguration config = Jackson.newObjectMapper().convertValue(assets, AssetsConfiguration.class);
+
+        ConfiguredAssetsBundle bundle = new ConfiguredAssetsBundle("/assets", URI_PATH, "index.htm");
+        bundle.addSource(URI_PATH + "generated", generated);
+        Environment environment = new Environment("assets-load-test", Jackson.newObjectMapper(),
+                Validation.buildDefaultValidatorFactory().getValidator(), metrics, getClass().getClassLoader());
+        bundle.run(new AssetsBundleConfiguration() {
+            @Override
+            public AssetsConfiguration getAssetsConfiguration() {
+                return config;
+            }
+        }, environment);
+
+        // A pool of fixed size keeps the same server threads alive throughout, so their allocation can be measured
+        int serverThreads = CLIENTS + 16;
+        QueuedThreadPool pool = new QueuedThreadPool(serverThreads, serverThreads);
+        pool.setName(SERVER_THREAD_NAME);
+        server = new Server(pool);
+        ServerConnector connector = new ServerConnector(server);
+        server.addConnector(connector);
+        server.setHandler(environment.getApplicationContext());
+        environment.lifecycle().attach(server);
+        server.start();
+        baseUrl = "http://localhost:" + connector.getLocalPort();
+
+        paths = Lists.newArrayList(URI_PATH + "example.txt", URI_PATH + "foo.bar", URI_PATH + "index.htm",
+                URI_PATH + "preload.html", URI_PATH + "some_directory/", URI_PATH + "some_directory/example.txt",
+                URI_PATH + "vendor/example.txt");
+        for (int i = 0; i < GENERATED_ASSETS; i++) {
+            paths.add(URI_PATH + "generated/generated-" + i + ".js");
+        }
+        for (int i = 0; i < LARGE_ASSETS; i++) {
+            paths.add(URI_PATH + "large/large-" + i + ".bin");
+        }
+        Collections.shuffle(paths, random);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void replaysTraffic() throws Exception {
+        ZipfDistribution zipf = new ZipfDistribution(paths.size(), ZIPF_EXPONENT);
+
+        System.out.printf("Warming up for %ds with %d clients...%n", WARMUP_SECONDS, CLIENTS);
+        run(zipf, WARMUP_SECONDS);
+
+        System.gc();
+        long gcCountBefore = gcCount();
+        long gcTimeBefore = gcTimeMillis();
+        long[] serverThreadIds = serverThreadIds();
+        long serverAllocatedBefore = allocatedBytes(serverThreadIds);
+
+        System.out.printf("Measuring for %ds with %d clients...%n", DURATION_SECONDS, CLIENTS);
+        long start = System.nanoTime();
+        Results results = run(zipf, DURATION_SECONDS);
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        long[] latencies = results.latencies();
+        Arrays.sort(latencies);
+        long requests = latencies.length;
+
+        System.out.printf("requests:        %d (%d errors)%n", requests, results.errors);
+        System.out.printf("status counts:   200=%d 304=%d 404=%d%n", results.ok, results.notModified, results.notFound);
+        System.out.printf("throughput:      %.0f req/s%n", requests / elapsedSeconds);
+        System.out.printf("latency p50:     %.3f ms%n", percentile(latencies, 0.50) / 1e6);
+        System.out.printf("latency p99:     %.3f ms%n", percentile(latencies, 0.99) / 1e6);
+        System.out.printf("latency p999:    %.3f ms%n", percentile(latencies, 0.999) / 1e6);
+        System.out.printf("latency max:     %.3f ms%n", (requests > 0 ? latencies[latencies.length - 1] : 0) / 1e6);
+        System.out.printf("gc collections:  %d (%d ms total)%n", gcCount() - gcCountBefore, gcTimeMillis() - gcTimeBefore);
+
+        long serverAllocated = allocatedBytes(serverThreadIds) - serverAllocatedBefore;
+        if (serverAllocatedBefore >= 0 && requests > 0) {
+            // Clients run in the same JVM, so their allocation is measured on their own threads and reported apart
+            System.out.printf("allocated/req:   %d bytes (server), %d bytes (clients)%n",
+                    serverAllocated / requests, results.allocatedBytes / requests);
+        }
+
+        // The bundle's histograms can't be reset, so these include the warmup
+        String prefix = MetricRegistry.name(ConfiguredAssetsBundle.class, "assets", "trace");
+        for (Map.Entry<String, Histogram> histogram : metrics.getHistograms().entrySet()) {
+            if (histogram.getKey().startsWith(prefix)) {
+                Snapshot snapshot = histogram.getValue().getSnapshot();
+                System.out.printf("%-16s p50=%.0f us p99=%.0f us%n",
+                        histogram.getKey().substring(prefix.length() + 1) + ':',
+                        snapshot.getMedian(), snapshot.get99thPercentile());
+            }
+        }
+    }
+
+    private Results run(final ZipfDistribution zipf, int seconds) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final Results results = new Results();
+        final CountDownLatch done = new CountDownLatch(CLIENTS);
+
+        for (int i = 0; i < CLIENTS; i++) {
+            final Random clientRandom = new Random(random.nextLong());
+            Thread client = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        long[] self = {Thread.currentThread().getId()};
+                        long allocatedBefore = allocatedBytes(self);
+                        ClientResults clientResults = new ClientResults();
+                        while (System.nanoTime() < deadline) {
+                            request(zipf, clientRandom, clientResults);
+                        }
+                        clientResults.allocatedBytes = allocatedBytes(self) - allocatedBefore;
+                        results.add(clientResults);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "load-client-" + i);
+            client.setDaemon(true);
+            client.start();
+        }
+
+        done.await();
+        return results;
+    }
+
+    private void request(ZipfDistribution zipf, Random clientRandom, ClientResults results) {
+        String path = (clientRandom.nextDouble() < MISS_RATIO)
+                ? URI_PATH + "missing-" + clientRandom.nextInt(1000) + ".txt"
+                : paths.get(zipf.sample(clientRandom));
+        String eTag = (clientRandom.nextDouble() < CONDITIONAL_RATIO) ? eTags.get(path) : null;
+
+        long start = System.nanoTime();
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+            if (eTag != null) {
+                connection.setRequestProperty(HttpHeaders.IF_NONE_MATCH, eTag);
+            }
+
+            int status = connection.getResponseCode();
+            InputStream body = (status < 400) ? connection.getInputStream() : connection.getErrorStream();
+            if (body != null) {
+                try {
+                    ByteStreams.copy(body, ByteStreams.nullOutputStream());
+                } finally {
+                    body.close();
+                }
+            }
+            results.record(System.nanoTime() - start, status);
+
+            String responseETag = connection.getHeaderField(HttpHeaders.ETAG);
+            if (status == 200 && responseETag != null) {
+                eTags.put(path, responseETag);
+            }
+        } catch (IOException e) {
+            results.errors++;
+        }
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(gc.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+    private static long gcTimeMillis() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(gc.getCollectionTime(), 0);
+        }
+        return time;
+    }
+
+    /** The ids of the server's threads, which stay the same while it runs since its pool is of a fixed size. */
+    private static long[] serverThreadIds() {
+        List<Long> ids = Lists.newArrayList();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(SERVER_THREAD_NAME + '-')) {
+                ids.add(thread.getId());
+            }
+        }
+        return Longs.toArray(ids);
+    }
+
+    /** The bytes allocated so far by the given threads, or -1 if the JVM can't tell. */
+    private static long allocatedBytes(long[] threadIds) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+
+        long total = 0;
+        for (long allocated : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threadIds)) {
+            total += Math.max(allocated, 0);
+        }
+        return total;
+    }
+
+    /** Samples ranks {@code 0..n-1} with probability proportional to {@code 1 / (rank + 1)^exponent}. */
+    private static final class ZipfDistribution {
+        private final double[] cumulative;
+
+        private ZipfDistribution(int n, double exponent) {
+            cumulative = new double[n];
+            double total = 0;
+            for (int i = 0; i < n; i++) {
+                total += 1 / Math.pow(i + 1, exponent);
+                cumulative[i] = total;
+            }
+            for (int i = 0; i < n; i++) {
+                cumulative[i] /= total;
+            }
+        }
+
+        private int sample(Random random) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble());
+            return Math.min((index >= 0) ? index : -index - 1, cumulative.length - 1);
+        }
+    }
+
+    /** The results of a single client, which only that client's thread touches. */
+    private static final class ClientResults {
+        private long[] latencies = new long[1024];
+        private int count;
+        private long ok;
+        private long notModified;
+        private long notFound;
+        private long errors;
+        private long allocatedBytes;
+
+        private void record(long latencyNanos, int status) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latencyNanos;
+
+            if (status == 200) {
+                ok++;
+            } else if (status == 304) {
+                notModified++;
+            } else if (status == 404) {
+                notFound++;
+            }
+        }
+    }
+
+    private static final class Results {
+        private final List<long[]> latencies = Lists.newArrayList();
+        private long ok;
+        private long notModified;
+        private long notFound;
+        private long errors;
+        private long allocatedBytes;
+
+        private synchronized void add(ClientResults client) {
+            latencies.add(Arrays.copyOf(client.latencies, client.count));
+            ok += client.ok;
+            notModified += client.notModified;
+            notFound += client.notFound;
+            errors += client.errors;
+            allocatedBytes += client.allocatedBytes;
+        }
+
+        private synchronized long[] latencies() {
+            int total = 0;
+            for (long[] client : latencies) {
+                total += client.length;
+            }
+
+            long[] all = new long[total];
+            int offset = 0;
+            for (long[] client : latencies) {
+                System.arraycopy(client, 0, all, offset, client.length);
+                offset += client.length;
+            }
+            return all;
+        }
+    }
+}
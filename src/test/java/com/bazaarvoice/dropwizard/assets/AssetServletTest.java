@@ -1,19 +1,40 @@
 package com.bazaarvoice.dropwizard.assets;
 
+import com.google.common.base.Charsets;
 import com.google.common.cache.CacheBuilderSpec;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
 import com.google.common.net.HttpHeaders;
+import com.google.common.net.MediaType;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpTester;
 import org.eclipse.jetty.http.MimeTypes;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.servlet.ServletTester;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
-
+import org.junit.rules.TemporaryFolder;
+
+import javax.servlet.DispatcherType;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.fest.assertions.api.Assertions.assertThat;
 
@@ -25,6 +46,12 @@ public class AssetServletTest {
     private static final String NOINDEX_SERVLET = "/noindex_servlet/";
     private static final String NOCHARSET_SERVLET = "/nocharset_servlet/";
     private static final String MIME_SERVLET = "/mime_servlet/";
+    private static final String SOURCES_SERVLET = "/sources_servlet/";
+    private static final String TRANSFORM_SERVLET = "/transform_servlet/";
+    private static final String TRACED_SERVLET = "/traced_servlet/";
+    private static final String FILTERED_SERVLET = "/filtered_servlet/";
+    private static final String OVERRIDE_SERVLET = "/override_servlet/";
+    private static final String NO_LAST_MODIFIED_SERVLET = "/no_last_modified_servlet/";
     private static final String ROOT_SERVLET = "/";
     private static final String RESOURCE_PATH = "/assets";
 
@@ -69,7 +96,56 @@ public class AssetServletTest {
         }
     }
 
+    public static class SourcesAssetServlet extends AssetServlet {
+        public SourcesAssetServlet() {
+            super(RESOURCE_PATH, DEFAULT_CACHE_SPEC, SOURCES_SERVLET, "index.htm", EMPTY_OVERRIDES, EMPTY_MIMETYPES);
+            InMemoryAssetSource source = new InMemoryAssetSource();
+            source.put("example.txt", "HELLO FROM MEMORY".getBytes(Charsets.UTF_8));
+            source.put("some_directory/index.htm", "In-memory Index File".getBytes(Charsets.UTF_8));
+            addSource(SOURCES_SERVLET + "memory", source);
+        }
+    }
+
+    public static class TransformingAssetServlet extends AssetServlet {
+        public TransformingAssetServlet() {
+            super(RESOURCE_PATH, DEFAULT_CACHE_SPEC, TRANSFORM_SERVLET, "index.htm", EMPTY_OVERRIDES, EMPTY_MIMETYPES);
+            addTransformer(MediaType.PLAIN_TEXT_UTF_8, new AssetTransformer() {
+                @Override
+                public byte[] transform(String path, byte[] content) {
+                    return new String(content, Charsets.UTF_8).toLowerCase().getBytes(Charsets.UTF_8);
+                }
+            });
+        }
+    }
+
+    public static class NoLastModifiedAssetServlet extends AssetServlet {
+        public NoLastModifiedAssetServlet() {
+            super(RESOURCE_PATH, DEFAULT_CACHE_SPEC, NO_LAST_MODIFIED_SERVLET, "index.htm", EMPTY_OVERRIDES,
+                    EMPTY_MIMETYPES);
+            setServeLastModified(false);
+        }
+    }
+
+    public static class TracedAssetServlet extends AssetServlet {
+        private static final List<AssetTrace> TRACES = Lists.newCopyOnWriteArrayList();
+
+        public TracedAssetServlet() {
+            super(RESOURCE_PATH, DEFAULT_CACHE_SPEC, TRACED_SERVLET, "index.htm", EMPTY_OVERRIDES, EMPTY_MIMETYPES);
+            addTracer(new AssetTracer() {
+                @Override
+                public void traced(AssetTrace trace) {
+                    TRACES.add(trace);
+                }
+            });
+        }
+    }
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private final ServletTester servletTester = new ServletTester();
+    private final List<AssetTrace> filteredRequests = Lists.newCopyOnWriteArrayList();
+    private File overrideFile;
     private HttpTester.Request request;
     private HttpTester.Response response;
 
@@ -80,6 +156,46 @@ public class AssetServletTest {
         servletTester.addServlet(NoCharsetAssetServlet.class, NOCHARSET_SERVLET + '*');
         servletTester.addServlet(RootAssetServlet.class, ROOT_SERVLET + '*');
         servletTester.addServlet(MimeMappingsServlet.class, MIME_SERVLET + '*');
+        servletTester.addServlet(SourcesAssetServlet.class, SOURCES_SERVLET + '*');
+        servletTester.addServlet(TransformingAssetServlet.class, TRANSFORM_SERVLET + '*');
+        servletTester.addServlet(TracedAssetServlet.class, TRACED_SERVLET + '*');
+        servletTester.addServlet(NoLastModifiedAssetServlet.class, NO_LAST_MODIFIED_SERVLET + '*');
+
+        // Servlets that need per-test state are registered as instances; the tracer counts the requests that reach the
+        // servlet instead of being answered by the filter
+        final File override = temporaryFolder.newFile("override.txt");
+        Files.write("OVERRIDDEN", override, Charsets.UTF_8);
+        final AssetServlet filtered = new AssetServlet(RESOURCE_PATH, DEFAULT_CACHE_SPEC, FILTERED_SERVLET, "index.htm",
+                ImmutableMap.of(FILTERED_SERVLET + "override.txt", override.getPath()).entrySet(), EMPTY_MIMETYPES);
+        filtered.addSource(FILTERED_SERVLET + "vendor", new ClasspathAssetSource(RESOURCE_PATH + "/some_directory"));
+        final NotModifiedFilter notModifiedFilter = new NotModifiedFilter();
+        filtered.setNotModifiedFilter(notModifiedFilter);
+        filtered.addTracer(new AssetTracer() {
+            @Override
+            public void traced(AssetTrace trace) {
+                filteredRequests.add(trace);
+            }
+        });
+        servletTester.addServlet(new ServletHolder(filtered), FILTERED_SERVLET + '*');
+        servletTester.addFilter(new FilterHolder(notModifiedFilter), FILTERED_SERVLET + '*',
+                EnumSet.of(DispatcherType.REQUEST));
+
+        // One override of a single file and one of a directory, next to a file that neither may expose
+        overrideFile = temporaryFolder.newFile("exact.txt");
+        Files.write("EXACT FILE", overrideFile, Charsets.UTF_8);
+        final File overrideDirectory = temporaryFolder.newFolder("overrides");
+        Files.write("Override Index File", new File(overrideDirectory, "index.htm"), Charsets.UTF_8);
+        Files.write("OVERRIDDEN FILE", new File(overrideDirectory, "file.txt"), Charsets.UTF_8);
+        Files.write("SECRET", temporaryFolder.newFile("secret.txt"), Charsets.UTF_8);
+        final File overridePage = temporaryFolder.newFile("page.tmp");
+        Files.write("<script src=\"app.js\"></script>", overridePage, Charsets.UTF_8);
+        servletTester.addServlet(new ServletHolder(new AssetServlet(RESOURCE_PATH, DEFAULT_CACHE_SPEC, OVERRIDE_SERVLET,
+                "index.htm", ImmutableMap.of(
+                        OVERRIDE_SERVLET + "file.txt", overrideFile.getPath(),
+                        OVERRIDE_SERVLET + "dir", overrideDirectory.getPath(),
+                        OVERRIDE_SERVLET + "page.html", overridePage.getPath()).entrySet(),
+                EMPTY_MIMETYPES)), OVERRIDE_SERVLET + '*');
+
         servletTester.start();
 
         request = HttpTester.newRequest();
@@ -103,6 +219,207 @@ public class AssetServletTest {
                 .isEqualTo("HELLO THERE");
     }
 
+    @Test
+    public void servesFilesFromAddedSources() throws Exception {
+        request.setURI(SOURCES_SERVLET + "memory/example.txt");
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.getStatus())
+                .isEqualTo(200);
+        assertThat(response.getContent())
+                .isEqualTo("HELLO FROM MEMORY");
+
+        request.setURI(SOURCES_SERVLET + "memory/some_directory/");
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.getStatus())
+                .isEqualTo(200);
+        assertThat(response.getContent())
+                .isEqualTo("In-memory Index File");
+
+        // Paths the source doesn't have fall through to the classpath
+        request.setURI(SOURCES_SERVLET + "example.txt");
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.getStatus())
+                .isEqualTo(200);
+        assertThat(response.getContent())
+                .isEqualTo("HELLO THERE");
+    }
+
+    @Test
+    public void servesSingleFileOverrides() throws Exception {
+        request.setURI(OVERRIDE_SERVLET + "file.txt");
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.getStatus())
+                .isEqualTo(200);
+        assertThat(response.getContent())
+                .isEqualTo("EXACT FILE");
+    }
+
+    @Test
+    public void servesDirectoryOverridesAndTheirIndexes() throws Exception {
+        request.setURI(OVERRIDE_SERVLET + "dir/file.txt");
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.getStatus())
+                .isEqualTo(200);
+        assertThat(response.getContent())
+                .isEqualTo("OVERRIDDEN FILE");
+
+        request.setURI(OVERRIDE_SERVLET + "dir/");
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.getStatus())
+                .isEqualTo(200);
+        assertThat(response.getContent())
+                .isEqualTo("Override Index File");
+
+        // Paths outside the overrides still come from the classpath
+        request.setURI(OVERRIDE_SERVLET + "example.txt");
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.getContent())
+                .isEqualTo("HELLO THERE");
+    }
+
+    @Test
+    public void reloadsOverridesWhenTheyChange() throws Exception {
+        request.setURI(OVERRIDE_SERVLET + "file.txt");
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        final String firstETag = response.get(HttpHeaders.ETAG);
+
+        Files.write("CHANGED FILE", overrideFile, Charsets.UTF_8);
+        // Make sure the change is visible even on filesystems with a coarse modification time
+        assertThat(overrideFile.setLastModified(overrideFile.lastModified() + 10000))
+                .isTrue();
+
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.getContent())
+                .isEqualTo("CHANGED FILE");
+        assertThat(response.get(HttpHeaders.ETAG))
+                .isNotEqualTo(firstETag);
+    }
+
+    @Test
+    public void doesNotServeFilesOutsideOfOverrides() throws Exception {
+        // Jetty leaves the "dir.." segment alone, and the override mounted at "dir" then sees "../secret.txt"
+        request.setURI(OVERRIDE_SERVLET + "dir../secret.txt");
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.getStatus())
+                .isEqualTo(404);
+    }
+
+    @Test
+    public void preloadsAssetsReferencedByHtml() throws Exception {
+        request.setURI(DUMMY_SERVLET + "preload.html");
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.getStatus())
+                .isEqualTo(200);
+        assertThat(response.get(HttpHeaders.LINK))
+                .isEqualTo("</dummy_servlet/styles/main.css>; rel=preload; as=style, "
+                        + "</assets/js/app.js>; rel=preload; as=script");
+
+        request.setURI(DUMMY_SERVLET + "example.txt");
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.get(HttpHeaders.LINK))
+                .isNull();
+
+        // Whether a page is HTML depends on the URI it is served at, not on the name of the file it comes from
+        request.setURI(OVERRIDE_SERVLET + "page.html");
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.get(HttpHeaders.LINK))
+                .isEqualTo("</override_servlet/app.js>; rel=preload; as=script");
+    }
+
+    @Test
+    public void preloadsAssetsBeneathTheContextPath() throws Exception {
+        final ServletTester contextTester = new ServletTester();
+        contextTester.setContextPath("/app");
+        contextTester.addServlet(DummyAssetServlet.class, DUMMY_SERVLET + '*');
+        contextTester.start();
+        try {
+            // Relative references include the context path the page was served beneath; absolute ones are left alone
+            request.setURI("/app" + DUMMY_SERVLET + "preload.html");
+            response = HttpTester.parseResponse(contextTester.getResponses(request.generate()));
+            assertThat(response.getStatus())
+                    .isEqualTo(200);
+            assertThat(response.get(HttpHeaders.LINK))
+                    .isEqualTo("</app/dummy_servlet/styles/main.css>; rel=preload; as=style, "
+                            + "</assets/js/app.js>; rel=preload; as=script");
+        } finally {
+            contextTester.stop();
+        }
+    }
+
+    @Test
+    public void servesTransformedAssets() throws Exception {
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        final String untransformedEtag = response.get(HttpHeaders.ETAG);
+
+        request.setURI(TRANSFORM_SERVLET + "example.txt");
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.getStatus())
+                .isEqualTo(200);
+        assertThat(response.getContent())
+                .isEqualTo("hello there");
+        assertThat(response.get(HttpHeaders.ETAG))
+                .isNotEqualTo(untransformedEtag);
+
+        // Only assets of the transformer's type are transformed
+        request.setURI(TRANSFORM_SERVLET + "index.htm");
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.getContent())
+                .contains("/assets Index File");
+    }
+
+    @Test
+    public void tracesThePhasesOfServingAnAsset() throws Exception {
+        TracedAssetServlet.TRACES.clear();
+
+        request.setURI(TRACED_SERVLET + "example.txt");
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.getStatus())
+                .isEqualTo(200);
+        assertThat(TracedAssetServlet.TRACES)
+                .hasSize(1);
+
+        // The first request loads the asset from the classpath within the cache lookup
+        final AssetTrace trace = TracedAssetServlet.TRACES.get(0);
+        assertThat(trace.getPath())
+                .isEqualTo(TRACED_SERVLET + "example.txt");
+        assertThat(trace.getNanos(AssetTrace.Phase.READ))
+                .isGreaterThan(0);
+        assertThat(trace.getNanos(AssetTrace.Phase.CACHE))
+                .isGreaterThanOrEqualTo(trace.getNanos(AssetTrace.Phase.READ));
+        assertThat(trace.getTotalNanos())
+                .isGreaterThanOrEqualTo(trace.getNanos(AssetTrace.Phase.CACHE) + trace.getNanos(AssetTrace.Phase.WRITE));
+
+        // Later requests are served from the cache without reading the asset again
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(TracedAssetServlet.TRACES)
+                .hasSize(2);
+        assertThat(TracedAssetServlet.TRACES.get(1).getNanos(AssetTrace.Phase.READ))
+                .isEqualTo(0);
+        assertThat(TracedAssetServlet.TRACES.get(1).isEntered(AssetTrace.Phase.READ))
+                .isFalse();
+        assertThat(TracedAssetServlet.TRACES.get(1).isEntered(AssetTrace.Phase.CACHE))
+                .isTrue();
+    }
+
+    @Test
+    public void tracesTheCacheLookupsOfMisses() throws Exception {
+        TracedAssetServlet.TRACES.clear();
+
+        request.setURI(TRACED_SERVLET + "missing.txt");
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.getStatus())
+                .isEqualTo(404);
+        assertThat(TracedAssetServlet.TRACES)
+                .hasSize(1);
+
+        // The failed lookup still ends the cache phase, which includes the stats that found nothing
+        final AssetTrace trace = TracedAssetServlet.TRACES.get(0);
+        assertThat(trace.getNanos(AssetTrace.Phase.CACHE))
+                .isGreaterThan(0);
+        assertThat(trace.getNanos(AssetTrace.Phase.CACHE))
+                .isGreaterThanOrEqualTo(trace.getNanos(AssetTrace.Phase.STAT));
+    }
+
     @Test
     public void servesCharset() throws Exception {
         request.setURI(DUMMY_SERVLET + "example.txt");
@@ -194,6 +511,212 @@ public class AssetServletTest {
                 .isEqualTo(200);
     }
 
+    @Test
+    public void answersRevalidationsOfClasspathAssetsInTheFilter() throws Exception {
+        request.setURI(FILTERED_SERVLET + "example.txt");
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        final String eTag = response.get(HttpHeaders.ETAG);
+        assertThat(filteredRequests)
+                .hasSize(1);
+
+        // The servlet recorded the asset's real ETag, so the revalidation never reaches it
+        request.setHeader(HttpHeaders.IF_NONE_MATCH, eTag);
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.getStatus())
+                .isEqualTo(304);
+        assertThat(response.get(HttpHeaders.ETAG))
+                .isEqualTo(eTag);
+        assertThat(filteredRequests)
+                .hasSize(1);
+
+        request.setHeader(HttpHeaders.IF_NONE_MATCH, eTag + "FOO");
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.getStatus())
+                .isEqualTo(200);
+        assertThat(filteredRequests)
+                .hasSize(2);
+    }
+
+    @Test
+    public void answersRevalidationsOfClasspathSourcesInTheFilter() throws Exception {
+        request.setURI(FILTERED_SERVLET + "vendor/example.txt");
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.getStatus())
+                .isEqualTo(200);
+        final String eTag = response.get(HttpHeaders.ETAG);
+
+        // A classpath source can't change any more than the servlet's own classpath can
+        request.setHeader(HttpHeaders.IF_NONE_MATCH, eTag);
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.getStatus())
+                .isEqualTo(304);
+        assertThat(filteredRequests)
+                .hasSize(1);
+    }
+
+    @Test
+    public void passesRevalidationsOfOverridesToTheServlet() throws Exception {
+        request.setURI(FILTERED_SERVLET + "override.txt");
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.getContent())
+                .isEqualTo("OVERRIDDEN");
+        final String eTag = response.get(HttpHeaders.ETAG);
+
+        // Overrides can change on disk, so only the servlet can tell whether the ETag is still current
+        request.setHeader(HttpHeaders.IF_NONE_MATCH, eTag);
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.getStatus())
+                .isEqualTo(304);
+        assertThat(filteredRequests)
+                .hasSize(2);
+    }
+
+    @Test
+    public void invalidatesAssetsOnPeers() throws Exception {
+        final LocalInvalidationBroadcaster broadcaster = new LocalInvalidationBroadcaster();
+        final AssetServlet local = new AssetServlet(RESOURCE_PATH, DEFAULT_CACHE_SPEC, DUMMY_SERVLET, "index.htm",
+                EMPTY_OVERRIDES, EMPTY_MIMETYPES);
+        local.setInvalidationBroadcaster(broadcaster);
+
+        // The peer is a second servlet serving the same paths in its own server
+        final List<AssetTrace> peerRequests = Lists.newCopyOnWriteArrayList();
+        final AssetServlet peer = new AssetServlet(RESOURCE_PATH, DEFAULT_CACHE_SPEC, DUMMY_SERVLET, "index.htm",
+                EMPTY_OVERRIDES, EMPTY_MIMETYPES);
+        peer.setInvalidationBroadcaster(broadcaster);
+        peer.addTracer(new AssetTracer() {
+            @Override
+            public void traced(AssetTrace trace) {
+                peerRequests.add(trace);
+            }
+        });
+        final NotModifiedFilter peerFilter = new NotModifiedFilter();
+        peer.setNotModifiedFilter(peerFilter);
+        final ServletTester peerTester = new ServletTester();
+        peerTester.addServlet(new ServletHolder(peer), DUMMY_SERVLET + '*');
+        peerTester.addFilter(new FilterHolder(peerFilter), DUMMY_SERVLET + '*', EnumSet.of(DispatcherType.REQUEST));
+        peerTester.start();
+
+        try {
+            response = HttpTester.parseResponse(peerTester.getResponses(request.generate()));
+            final String eTag = response.get(HttpHeaders.ETAG);
+            assertThat(peerRequests.get(0).getNanos(AssetTrace.Phase.READ))
+                    .isGreaterThan(0);
+
+            local.invalidate(DUMMY_SERVLET + "example.txt");
+
+            // The peer's filter forgot the ETag, so the revalidation reaches the peer's servlet, which reloads the asset
+            request.setHeader(HttpHeaders.IF_NONE_MATCH, eTag);
+            response = HttpTester.parseResponse(peerTester.getResponses(request.generate()));
+            assertThat(response.getStatus())
+                    .isEqualTo(304);
+            assertThat(peerRequests)
+                    .hasSize(2);
+            assertThat(peerRequests.get(1).getNanos(AssetTrace.Phase.READ))
+                    .isGreaterThan(0);
+        } finally {
+            peerTester.stop();
+        }
+    }
+
+    @Test
+    public void discardsLoadsOvertakenByAnInvalidation() throws Exception {
+        // The source never reports a new modification time, so only an invalidation can make the servlet reload it
+        final AtomicReference<String> content = new AtomicReference<String>("OLD");
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch invalidated = new CountDownLatch(1);
+        final AssetServlet servlet = new AssetServlet(RESOURCE_PATH, DEFAULT_CACHE_SPEC, DUMMY_SERVLET, "index.htm",
+                EMPTY_OVERRIDES, EMPTY_MIMETYPES);
+        servlet.addSource(DUMMY_SERVLET + "racy", new AssetSource() {
+            @Override
+            public Map<String, AssetStat> stat(Collection<String> paths) {
+                Map<String, AssetStat> stats = Maps.newHashMap();
+                for (String path : paths) {
+                    stats.put(path, new AssetStat(path.isEmpty(), -1, 1000));
+                }
+                return stats;
+            }
+
+            @Override
+            public InputStream open(String path, long offset, long length) {
+                byte[] bytes = content.get().getBytes(Charsets.UTF_8);
+                reading.countDown();
+                Uninterruptibles.awaitUninterruptibly(invalidated);
+                return new ByteArrayInputStream(bytes);
+            }
+        });
+        final ServletTester racyTester = new ServletTester();
+        racyTester.addServlet(new ServletHolder(servlet), DUMMY_SERVLET + '*');
+        racyTester.start();
+
+        try {
+            request.setURI(DUMMY_SERVLET + "racy/file.txt");
+            final ByteBuffer firstRequest = request.generate();
+            final AtomicReference<ByteBuffer> firstResponse = new AtomicReference<ByteBuffer>();
+            Thread first = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        firstResponse.set(racyTester.getResponses(firstRequest));
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            });
+            first.start();
+
+            // The asset changes and is invalidated while the first request is still reading the old contents
+            assertThat(reading.await(5, TimeUnit.SECONDS))
+                    .isTrue();
+            content.set("NEW");
+            servlet.invalidate(DUMMY_SERVLET + "racy/file.txt");
+            invalidated.countDown();
+            first.join();
+            assertThat(HttpTester.parseResponse(firstResponse.get()).getStatus())
+                    .isEqualTo(200);
+
+            response = HttpTester.parseResponse(racyTester.getResponses(request.generate()));
+            assertThat(response.getContent())
+                    .isEqualTo("NEW");
+        } finally {
+            racyTester.stop();
+        }
+    }
+
+    @Test
+    public void omitsLastModifiedTimesWhenDisabled() throws Exception {
+        request.setURI(NO_LAST_MODIFIED_SERVLET + "example.txt");
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.getStatus())
+                .isEqualTo(200);
+        assertThat(response.get(HttpHeaders.LAST_MODIFIED))
+                .isNull();
+        final String eTag = response.get(HttpHeaders.ETAG);
+
+        // Without a modification time, If-Modified-Since can't match...
+        request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, HttpFields.formatDate(System.currentTimeMillis() + 86400000L));
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.getStatus())
+                .isEqualTo(200);
+
+        // ...but the ETag still does
+        request.setHeader(HttpHeaders.IF_NONE_MATCH, eTag);
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.getStatus())
+                .isEqualTo(304);
+    }
+
+    @Test
+    public void prefersETagsOverLastModifiedTimes() throws Exception {
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        final long lastModifiedTime = response.getDateField(HttpHeaders.LAST_MODIFIED);
+
+        request.setHeader(HttpHeaders.IF_NONE_MATCH, "\"stale\"");
+        request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, HttpFields.formatDate(lastModifiedTime));
+        response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
+        assertThat(response.getStatus())
+                .isEqualTo(200);
+    }
+
     @Test
     public void consistentlyAssignsLastModifiedTimes() throws Exception {
         response = HttpTester.parseResponse(servletTester.getResponses(request.generate()));
@@ -0,0 +1,91 @@
+package com.bazaarvoice.dropwizard.assets;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class DatagramInvalidationBroadcasterTest {
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<String>();
+    private DatagramInvalidationBroadcaster receiver;
+    private DatagramInvalidationBroadcaster sender;
+
+    @Before
+    public void setup() throws Exception {
+        // Each broadcaster only accepts invalidations from its peers, so both need to know their ports up front
+        InetSocketAddress receiverAddress = freeLoopbackAddress();
+        InetSocketAddress senderAddress = freeLoopbackAddress();
+
+        receiver = new DatagramInvalidationBroadcaster(receiverAddress, ImmutableList.of(senderAddress));
+        receiver.addListener(new InvalidationBroadcaster.Listener() {
+            @Override
+            public void invalidated(String path) {
+                throw new IllegalStateException("Listeners may fail");
+            }
+        });
+        receiver.addListener(new InvalidationBroadcaster.Listener() {
+            @Override
+            public void invalidated(String path) {
+                received.add(path);
+            }
+        });
+        receiver.start();
+
+        sender = new DatagramInvalidationBroadcaster(senderAddress, ImmutableList.of(receiverAddress));
+        sender.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sender.stop();
+        receiver.stop();
+    }
+
+    @Test
+    public void deliversInvalidationsToPeers() throws Exception {
+        sender.broadcast("/assets/example.txt");
+        sender.broadcast("/assets/index.htm");
+
+        // The failing listener neither keeps the others from hearing about an invalidation nor stops the receiver
+        assertThat(received.poll(5, TimeUnit.SECONDS))
+                .isEqualTo("/assets/example.txt");
+        assertThat(received.poll(5, TimeUnit.SECONDS))
+                .isEqualTo("/assets/index.htm");
+    }
+
+    @Test
+    public void ignoresInvalidationsFromStrangers() throws Exception {
+        byte[] payload = "/assets/secret.txt".getBytes(Charsets.UTF_8);
+        DatagramSocket stranger = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        try {
+            stranger.send(new DatagramPacket(payload, payload.length, receiver.getLocalAddress()));
+        } finally {
+            stranger.close();
+        }
+        sender.broadcast("/assets/example.txt");
+
+        // Datagrams on the loopback interface arrive in order, so the stranger's would have been received first
+        assertThat(received.poll(5, TimeUnit.SECONDS))
+                .isEqualTo("/assets/example.txt");
+    }
+
+    private static InetSocketAddress freeLoopbackAddress() throws Exception {
+        DatagramSocket socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        try {
+            return (InetSocketAddress) socket.getLocalSocketAddress();
+        } finally {
+            socket.close();
+        }
+    }
+}
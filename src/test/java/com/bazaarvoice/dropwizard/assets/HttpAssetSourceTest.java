@@ -0,0 +1,177 @@
+package com.bazaarvoice.dropwizard.assets;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.net.HttpHeaders;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class HttpAssetSourceTest {
+    private static final String ETAG = "\"v1\"";
+    private static final byte[] CONTENT = "HELLO FROM THE ORIGIN".getBytes(Charsets.UTF_8);
+
+    private final AtomicInteger heads = new AtomicInteger();
+    private final AtomicInteger gets = new AtomicInteger();
+    private final AtomicInteger revalidations = new AtomicInteger();
+    private final CountDownLatch stalled = new CountDownLatch(1);
+    private final CountDownLatch resumed = new CountDownLatch(1);
+    private volatile boolean stalling;
+    private HttpServer server;
+    private URI base;
+
+    @Before
+    public void setup() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/origin/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                boolean head = "HEAD".equals(exchange.getRequestMethod());
+                (head ? heads : gets).incrementAndGet();
+                if (stalling) {
+                    stalled.countDown();
+                    Uninterruptibles.awaitUninterruptibly(resumed);
+                }
+                if (!exchange.getRequestURI().getPath().equals("/origin/example.txt")) {
+                    exchange.sendResponseHeaders(404, -1);
+                } else if (ETAG.equals(exchange.getRequestHeaders().getFirst(HttpHeaders.IF_NONE_MATCH))) {
+                    revalidations.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                } else if (head) {
+                    exchange.getResponseHeaders().set(HttpHeaders.ETAG, ETAG);
+                    exchange.getResponseHeaders().set(HttpHeaders.CONTENT_LENGTH, Integer.toString(CONTENT.length));
+                    exchange.sendResponseHeaders(200, -1);
+                } else {
+                    exchange.getResponseHeaders().set(HttpHeaders.ETAG, ETAG);
+                    exchange.sendResponseHeaders(200, CONTENT.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(CONTENT);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        base = URI.create("http://localhost:" + server.getAddress().getPort() + "/origin/");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        resumed.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    public void statsFilesFromTheOrigin() throws Exception {
+        HttpAssetSource source = new HttpAssetSource(base);
+
+        Map<String, AssetStat> stats = source.stat(ImmutableList.of("", "example.txt", "missing.txt"));
+
+        assertThat(stats.get("").isDirectory()).isTrue();
+        assertThat(stats.get("example.txt").isDirectory()).isFalse();
+        assertThat(stats.get("example.txt").getLength()).isEqualTo(CONTENT.length);
+        assertThat(stats.containsKey("missing.txt")).isFalse();
+
+        // Looking files up never downloads them
+        assertThat(heads.get()).isEqualTo(2);
+        assertThat(gets.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void readsRangesOfFiles() throws Exception {
+        HttpAssetSource source = new HttpAssetSource(base);
+
+        assertThat(AssetSources.read(source, "example.txt")).isEqualTo(CONTENT);
+        InputStream range = source.open("example.txt", 6, 4);
+        try {
+            assertThat(new String(ByteStreams.toByteArray(range), Charsets.UTF_8)).isEqualTo("FROM");
+        } finally {
+            range.close();
+        }
+    }
+
+    @Test
+    public void remembersLookupsUntilTheyExpire() throws Exception {
+        HttpAssetSource source = new HttpAssetSource(base, 60000);
+
+        AssetSources.stat(source, "example.txt");
+        AssetSources.stat(source, "missing.txt");
+        AssetSources.stat(source, "example.txt");
+        AssetSources.stat(source, "missing.txt");
+
+        assertThat(heads.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void revalidatesExpiredLookupsWithTheirETag() throws Exception {
+        HttpAssetSource source = new HttpAssetSource(base, 0);
+
+        AssetStat first = AssetSources.stat(source, "example.txt");
+        AssetStat second = AssetSources.stat(source, "example.txt");
+
+        assertThat(revalidations.get()).isEqualTo(1);
+        assertThat(second.getLength()).isEqualTo(CONTENT.length);
+        assertThat(second.getLastModifiedTime()).isEqualTo(first.getLastModifiedTime());
+    }
+
+    @Test
+    public void usesKnownLookupsWhileAnotherCallerRevalidates() throws Exception {
+        final HttpAssetSource source = new HttpAssetSource(base, 0);
+        AssetSources.stat(source, "example.txt");
+
+        stalling = true;
+        Thread revalidation = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    AssetSources.stat(source, "example.txt");
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        revalidation.start();
+        assertThat(stalled.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // While the origin is slow to answer the revalidation, other callers don't wait for it
+        AssetStat stat = AssetSources.stat(source, "example.txt");
+        assertThat(stat.getLength()).isEqualTo(CONTENT.length);
+        assertThat(heads.get()).isEqualTo(2);
+
+        resumed.countDown();
+        revalidation.join();
+    }
+
+    @Test
+    public void streamsContentsWithoutKeepingThem() throws Exception {
+        HttpAssetSource source = new HttpAssetSource(base, 60000);
+
+        assertThat(AssetSources.read(source, "example.txt")).isEqualTo(CONTENT);
+        assertThat(AssetSources.read(source, "example.txt")).isEqualTo(CONTENT);
+
+        assertThat(gets.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void doesNotEscapeTheBase() throws Exception {
+        HttpAssetSource source = new HttpAssetSource(base);
+
+        assertThat(source.stat(ImmutableList.of("../origin/example.txt", "file:/etc/passwd"))).isEmpty();
+    }
+}
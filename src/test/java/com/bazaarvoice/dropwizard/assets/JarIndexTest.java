@@ -0,0 +1,112 @@
+package com.bazaarvoice.dropwizard.assets;
+
+import com.google.common.base.Charsets;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class JarIndexTest {
+    private static final byte[] INDEX = "Jar Index File".getBytes(Charsets.UTF_8);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void findsFilesAndExplicitDirectories() throws Exception {
+        JarIndex index = JarIndex.scan(jar("assets/", "assets/index.htm"), "assets");
+
+        assertThat(index.stat("assets").isDirectory()).isTrue();
+        assertThat(index.stat("assets/").isDirectory()).isTrue();
+        assertThat(index.stat("assets/index.htm").isDirectory()).isFalse();
+        assertThat(index.stat("assets/index.htm").getLength()).isEqualTo(INDEX.length);
+        assertThat(index.stat("assets/missing.htm")).isNull();
+    }
+
+    @Test
+    public void findsDirectoriesWithoutEntries() throws Exception {
+        JarIndex index = JarIndex.scan(jar("assets/some_directory/index.htm"), "assets");
+
+        assertThat(index.stat("assets").isDirectory()).isTrue();
+        assertThat(index.stat("assets/some_directory").isDirectory()).isTrue();
+        assertThat(index.stat("assets/some_directory/index.htm").isDirectory()).isFalse();
+    }
+
+    @Test
+    public void skipsEntriesOutsideOfTheRoot() throws Exception {
+        JarIndex index = JarIndex.scan(jar("com/example/Service.class", "assets_backup/index.htm", "assets/index.htm"),
+                "assets");
+
+        assertThat(index.stat("assets/index.htm")).isNotNull();
+        assertThat(index.stat("com/example/Service.class")).isNull();
+        assertThat(index.stat("com")).isNull();
+        assertThat(index.stat("assets_backup/index.htm")).isNull();
+    }
+
+    @Test
+    public void resolvesClasspathJarsThroughTheIndex() throws Exception {
+        File jar = jar("assets/", "assets/some_directory/", "assets/some_directory/index.htm");
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        URLClassLoader classLoader = new URLClassLoader(new URL[]{jar.toURI().toURL()}, null);
+        Thread.currentThread().setContextClassLoader(classLoader);
+        try {
+            ClasspathAssetSource source = new ClasspathAssetSource("/assets");
+
+            assertThat(AssetSources.stat(source, "").isDirectory()).isTrue();
+            assertThat(AssetSources.stat(source, "some_directory").isDirectory()).isTrue();
+            assertThat(AssetSources.read(source, "some_directory/index.htm")).isEqualTo(INDEX);
+
+            // Only the index knows the size of a resource without reading it
+            assertThat(AssetSources.stat(source, "some_directory/index.htm").getLength()).isEqualTo(INDEX.length);
+        } finally {
+            Thread.currentThread().setContextClassLoader(contextClassLoader);
+            classLoader.close();
+        }
+    }
+
+    @Test
+    public void resolvesClasspathDirectoriesWithoutEntries() throws Exception {
+        File jar = jar("assets/", "assets/some_directory/nested/index.htm");
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        URLClassLoader classLoader = new URLClassLoader(new URL[]{jar.toURI().toURL()}, null);
+        Thread.currentThread().setContextClassLoader(classLoader);
+        try {
+            ClasspathAssetSource source = new ClasspathAssetSource("/assets");
+
+            // The class loader can't find directories the jar has no entries for, so only the index knows about them
+            assertThat(classLoader.getResource("assets/some_directory")).isNull();
+            assertThat(AssetSources.stat(source, "some_directory").isDirectory()).isTrue();
+            assertThat(AssetSources.stat(source, "some_directory/nested").isDirectory()).isTrue();
+            assertThat(AssetSources.stat(source, "some_directory/nested/index.htm").isDirectory()).isFalse();
+            assertThat(AssetSources.stat(source, "some_directory/missing")).isNull();
+        } finally {
+            Thread.currentThread().setContextClassLoader(contextClassLoader);
+            classLoader.close();
+        }
+    }
+
+    private File jar(String... names) throws Exception {
+        File file = folder.newFile("assets.jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+        try {
+            for (String name : names) {
+                out.putNextEntry(new JarEntry(name));
+                if (!name.endsWith("/")) {
+                    out.write(INDEX);
+                }
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}